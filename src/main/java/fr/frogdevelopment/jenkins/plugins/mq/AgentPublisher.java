@@ -0,0 +1,259 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.ConnectionFactory;
+import fr.frogdevelopment.jenkins.plugins.mq.PublishStatsAction.StepStats;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import hudson.util.Secret;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.SystemProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Render and publish the message of a build step on the agent running the build, so the message goes straight from
+ * the agent to the broker instead of transiting by the controller.<br>
+ * Only the settings of the step and the variables it references are sent to the agent. The passwords (broker, trust
+ * store and key store) are sent as {@link Secret}s through the remoting channel, the agent being trusted with them as
+ * it is with the credentials used by the builds. They are never written to the build log.<br>
+ * The connection of each configuration is kept on the agent (with its TLS context), like the connections of the
+ * controller, and replaced when the configuration or its password changes. The connections of a former version of a
+ * configuration and the ones not used for
+ * {@code fr.frogdevelopment.jenkins.plugins.mq.AgentPublisher.idleTimeout} minutes (default 30, deleted
+ * configurations) are closed.
+ */
+class AgentPublisher extends MasterToSlaveCallable<StepStats, Exception> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(SystemProperties.getInteger(
+            AgentPublisher.class.getName() + ".idleTimeout", 30));
+
+    // on the agent : connection per connection key
+    private static final ConcurrentMap<String, AgentConnection> CONNECTIONS = new ConcurrentHashMap<>();
+
+    private final String rabbitName;
+    private final String connectionKey;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final Secret password;
+    private final boolean isSecure;
+    private final String virtualHost;
+    private final String trustStore;
+    private final Secret trustStorePassword;
+    private final String keyStore;
+    private final Secret keyStorePassword;
+    private final String tlsProtocols;
+    private final String cipherSuites;
+    private final String rabbitTopology;
+
+    private final String exchange;
+    private final String routingKey;
+    private final String data;
+    private final boolean toJson;
+    private final String payload;
+    private final boolean conversion;
+    private final int chunkSize;
+    private final String deliveryMode;
+    private final String priority;
+    private final String expiration;
+    private final String contentType;
+    private final String headers;
+    private final String topology;
+
+    private final HashMap<String, String> buildParameters;
+    private final EnvVars env;
+    private final String messageId;
+    private final String traceparent;
+    private final TaskListener listener;
+
+    AgentPublisher(RabbitMqBuilder builder, RabbitConfig rabbitConfig, Map<String, String> buildParameters,
+                   EnvVars env, String messageId, String traceparent, TaskListener listener) {
+        this.rabbitName = rabbitConfig.getName();
+        this.connectionKey = rabbitConfig.getConnectionKey();
+        this.host = rabbitConfig.getHost();
+        this.port = rabbitConfig.getPort();
+        CachedCredentials credentials = rabbitConfig.getCredentials();
+        this.username = credentials.getUsername();
+        this.password = Secret.fromString(credentials.getPassword());
+        this.isSecure = rabbitConfig.getIsSecure();
+        this.virtualHost = rabbitConfig.getVirtualHost();
+        // the stores are read on the agent
+        this.trustStore = rabbitConfig.getTrustStore();
+        this.trustStorePassword = toSecret(rabbitConfig.getTrustStorePassword());
+        this.keyStore = rabbitConfig.getKeyStore();
+        this.keyStorePassword = toSecret(rabbitConfig.getKeyStorePassword());
+        this.tlsProtocols = rabbitConfig.getTlsProtocols();
+        this.cipherSuites = rabbitConfig.getCipherSuites();
+        this.rabbitTopology = rabbitConfig.getTopology();
+
+        this.exchange = builder.getExchange();
+        this.routingKey = builder.getRoutingKey();
+        this.data = builder.getData();
+        this.toJson = builder.isToJson();
+        this.payload = builder.getPayload() != null ? JsonTemplate.write(builder.getPayload()) : null;
+        this.conversion = builder.getConversion();
+        this.chunkSize = builder.getChunkSize();
+        this.deliveryMode = builder.getDeliveryMode();
+        this.priority = builder.getPriority();
+        this.expiration = builder.getExpiration();
+        this.contentType = builder.getContentType();
+        this.headers = builder.getHeaders();
+        this.topology = builder.getTopology();
+
+        this.buildParameters = new HashMap<>(buildParameters);
+        this.env = env;
+        this.messageId = messageId;
+        this.traceparent = traceparent;
+        this.listener = listener;
+    }
+
+    private static Secret toSecret(String encryptedPassword) {
+        return encryptedPassword != null ? Secret.fromString(encryptedPassword) : null;
+    }
+
+    private static String toPlainText(Secret secret) {
+        return secret != null ? secret.getPlainText() : null;
+    }
+
+    @Override
+    public StepStats call() throws Exception {
+        PrintStream console = listener.getLogger();
+
+        long start = System.nanoTime();
+        console.println("Building message");
+        String message;
+        if (payload != null) {
+            message = payload;
+            console.println("Sending payload as JSON:\n" + message);
+        } else {
+            message = MessageSender.render(toJson ? JsonTemplate.compile(data) : null, data, buildParameters, env);
+            console.println((toJson ? "Sending message as JSON:\n" : "Sending raw message:\n") + message);
+        }
+
+        PublishProperties properties = MessageSender.publishProperties(
+                MessagePropertiesTemplate.compile(deliveryMode, priority, expiration, contentType, headers),
+                buildParameters, env, messageId, null, traceparent);
+
+        long rendered = System.nanoTime();
+
+        console.println("Sending message");
+        // the remoting thread only waits for the network I/O
+        return PublishExecutor.call(() -> send(message, properties, start, rendered));
+    }
+
+    private StepStats send(String message, PublishProperties properties, long start, long rendered) throws Exception {
+        AgentConnection connection = connection();
+        // the shared connection of the factory, opened if it is not yet
+        connection.factory.createConnection();
+        long connected = System.nanoTime();
+        RabbitTemplate template = RabbitMqFactory.getRabbitTemplate(connection.factory);
+
+        Topology.parse(rabbitTopology).declareMissing(template, connection.declared);
+        Topology.parse(topology).declareMissing(template, connection.declared);
+
+        int messages = MessageSender.send(template, exchange, routingKey, message, conversion, chunkSize,
+                properties);
+        long sent = System.nanoTime();
+
+        return new StepStats(rabbitName, exchange, true, StepStats.millis(start, rendered),
+                StepStats.millis(rendered, connected), StepStats.millis(connected, sent), messages,
+                message.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    /**
+     * @return the connection kept on the agent, replaced if the configuration or the password changed
+     */
+    private AgentConnection connection() throws Exception {
+        AgentConnection connection = CONNECTIONS.get(connectionKey);
+        if (connection != null && connection.isFor(password)) {
+            connection.lastUsed = System.nanoTime();
+            return connection;
+        }
+
+        synchronized (CONNECTIONS) {
+            connection = CONNECTIONS.get(connectionKey);
+            if (connection == null || !connection.isFor(password)) {
+                closeStale();
+
+                TlsContext tlsContext = isSecure
+                        ? TlsContext.of(trustStore, toPlainText(trustStorePassword), keyStore,
+                        toPlainText(keyStorePassword), tlsProtocols, cipherSuites)
+                        : null;
+                ConnectionFactory connectionFactory = RabbitMqFactory.createConnectionFactory(username,
+                        password.getPlainText(), host, port, tlsContext, virtualHost);
+                connection = new AgentConnection(rabbitName, password, new CachingConnectionFactory(connectionFactory));
+                CONNECTIONS.put(connectionKey, connection);
+            }
+            connection.lastUsed = System.nanoTime();
+            return connection;
+        }
+    }
+
+    /**
+     * Close the connections of the configuration, replaced by the new one, and the ones idle for too long. The lock of
+     * the connections must be held.
+     */
+    private void closeStale() {
+        long now = System.nanoTime();
+        CONNECTIONS.entrySet().removeIf(entry -> {
+            AgentConnection connection = entry.getValue();
+            if (connection.rabbitName.equals(rabbitName) || now - connection.lastUsed > IDLE_TIMEOUT_NANOS) {
+                // publishes still running on it fail like on a closed connection
+                connection.factory.destroy();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * @return the factory of the connection kept on this JVM for the configuration, null if none
+     */
+    static CachingConnectionFactory getFactory(String rabbitName) {
+        return CONNECTIONS.values().stream()
+                .filter(connection -> connection.rabbitName.equals(rabbitName))
+                .map(connection -> connection.factory)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * @return number of connections kept on this JVM
+     */
+    static int getConnectionCount() {
+        return CONNECTIONS.size();
+    }
+
+    private static class AgentConnection {
+
+        private final String rabbitName;
+        private final Secret password;
+        private final CachingConnectionFactory factory;
+        private final Set<String> declared = ConcurrentHashMap.newKeySet();
+        private volatile long lastUsed = System.nanoTime();
+
+        private AgentConnection(String rabbitName, Secret password, CachingConnectionFactory factory) {
+            this.rabbitName = rabbitName;
+            this.password = password;
+            this.factory = factory;
+            // a new connection has nothing declared yet
+            factory.addConnectionListener(c -> declared.clear());
+        }
+
+        private boolean isFor(Secret password) {
+            return this.password.equals(password);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits of the in-memory buffers of events waiting to be sent, and what to do when a buffer is full.<br>
+ * Set with the system properties prefixed by {@code fr.frogdevelopment.jenkins.plugins.mq.Backpressure} :
+ * <ul>
+ * <li>{@code .capacity} : maximum number of events buffered per lane (default 10000)</li>
+ * <li>{@code .policy} : one of {@link Policy} (default DROP_OLDEST)</li>
+ * <li>{@code .sampleRate} : with the SAMPLE policy, one event kept out of this number once the buffer is half full
+ * (default 10)</li>
+ * </ul>
+ * There is no policy waiting for room : the events are emitted from Jenkins threads, some holding the lock of the
+ * queue, which must never wait for the broker.
+ */
+class Backpressure {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Backpressure.class);
+
+    enum Policy {
+        /**
+         * drop the oldest event of the buffer to make room for the new one
+         */
+        DROP_OLDEST,
+        /**
+         * drop the new event
+         */
+        DROP_NEWEST,
+        /**
+         * once the buffer is half full keep only one new event out of the sample rate, drop the new event when full
+         */
+        SAMPLE
+    }
+
+    private final Policy policy;
+    private final int capacity;
+    private final int sampleRate;
+
+    Backpressure(Policy policy, int capacity, int sampleRate) {
+        this.policy = policy;
+        this.capacity = Math.max(1, capacity);
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    static Backpressure fromSystemProperties() {
+        String prefix = Backpressure.class.getName();
+
+        Policy policy = Policy.DROP_OLDEST;
+        String policyName = SystemProperties.getString(prefix + ".policy");
+        if (policyName != null) {
+            try {
+                policy = Policy.valueOf(policyName.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Unknown backpressure policy {}, using {}", policyName, policy);
+            }
+        }
+
+        return new Backpressure(policy,
+                SystemProperties.getInteger(prefix + ".capacity", 10_000),
+                SystemProperties.getInteger(prefix + ".sampleRate", 10));
+    }
+
+    Policy getPolicy() {
+        return policy;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+}
@@ -0,0 +1,113 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Username and decrypted password of a Rabbit-MQ configuration, kept by the configuration so the password is not
+ * decrypted (or looked up in the credentials) on each publish.<br>
+ * An entry expires after a TTL, and all the entries are invalidated when the credentials are saved, so a rotated
+ * password is picked up by the next publish. A new configuration starts with an empty cache.
+ */
+final class CachedCredentials {
+
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(
+            SystemProperties.getInteger(CachedCredentials.class.getName() + ".ttl", 300));
+
+    // incremented each time the credentials change, entries of a previous generation are stale
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private final String username;
+    private final String password;
+    private final long generation;
+    private final long expiresAtNanos;
+
+    private CachedCredentials(String username, String password, long generation) {
+        this.username = username;
+        this.password = password;
+        this.generation = generation;
+        this.expiresAtNanos = System.nanoTime() + TTL_NANOS;
+    }
+
+    /**
+     * @param credentialsId id of username/password credentials, blank to use the username and password
+     * @param username      username of the configuration
+     * @param password      encrypted password of the configuration
+     * @return the resolved credentials
+     * @throws IllegalStateException if the credentials do not exist
+     */
+    static CachedCredentials resolve(String credentialsId, String username, String password) {
+        long generation = GENERATION.get();
+
+        if (StringUtils.isBlank(credentialsId)) {
+            return new CachedCredentials(username, decrypt(password), generation);
+        }
+
+        StandardUsernamePasswordCredentials credentials = lookup(credentialsId);
+        if (credentials == null) {
+            throw new IllegalStateException("Unknown credentials : " + credentialsId);
+        }
+
+        return new CachedCredentials(credentials.getUsername(), credentials.getPassword().getPlainText(), generation);
+    }
+
+    static StandardUsernamePasswordCredentials lookup(String credentialsId) {
+        return CredentialsMatchers.firstOrNull(
+                CredentialsProvider.lookupCredentials(StandardUsernamePasswordCredentials.class, Jenkins.get(),
+                        ACL.SYSTEM, Collections.emptyList()),
+                CredentialsMatchers.withId(credentialsId));
+    }
+
+    static String decrypt(String password) {
+        Secret decrypt = Secret.decrypt(password);
+
+        if (decrypt == null) {
+            return password;
+        }
+
+        return decrypt.getPlainText();
+    }
+
+    static void invalidateAll() {
+        GENERATION.incrementAndGet();
+    }
+
+    boolean isValid() {
+        return generation == GENERATION.get() && System.nanoTime() - expiresAtNanos < 0;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    String getPassword() {
+        return password;
+    }
+
+    @Extension
+    public static class CredentialsListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider || o instanceof CredentialsStore) {
+                invalidateAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitMqDescriptor;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Administration page probing all the Rabbit-MQ configurations in parallel, to compare the latency of the brokers.
+ * Also shows the counters of the plugin and the last published messages.
+ */
+@Extension
+public class ConnectionDiagnostics extends ManagementLink {
+
+    private static final int TIMEOUT_MILLIS = 5_000;
+    private static final int BURST = 20;
+
+    private transient volatile List<ConnectionProbe.Result> results;
+
+    @Override
+    public String getIconFileName() {
+        return "monitor.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Rabbit-MQ Diagnostics";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Check the connection and the latency to all the Rabbit-MQ brokers.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "rabbitmq-diagnostics";
+    }
+
+    public List<ConnectionProbe.Result> getResults() {
+        return results;
+    }
+
+    public Map<String, Long> getUnroutableCounts() {
+        return getRabbitMqDescriptor().getUnroutableCounts();
+    }
+
+    public Map<String, Long> getDroppedEvents() {
+        return getRabbitMqDescriptor().getDroppedEvents();
+    }
+
+    public Map<String, ConnectionRecovery.Stats> getRecoveryStats() {
+        return getRabbitMqDescriptor().getRecoveryStats();
+    }
+
+    /**
+     * @return last spans kept by the default exporter, newest first
+     */
+    public List<PublishSpan> getRecentSpans() {
+        RecentSpansExporter exporter = ExtensionList.lookup(SpanExporter.class).get(RecentSpansExporter.class);
+        if (exporter == null) {
+            return Collections.emptyList();
+        }
+        List<PublishSpan> spans = exporter.getSpans();
+        Collections.reverse(spans);
+        return spans;
+    }
+
+    @RequirePOST
+    public HttpResponse doProbe() throws InterruptedException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        List<RabbitConfig> rabbitConfigs = getRabbitMqDescriptor().getConfigs() != null
+                ? getRabbitMqDescriptor().getConfigs().getRabbitConfigs()
+                : Collections.emptyList();
+
+        results = new ConnectionProbe(TIMEOUT_MILLIS, BURST).probeAll(rabbitConfigs);
+
+        return HttpResponses.redirectToDot();
+    }
+
+    private static RabbitMqDescriptor getRabbitMqDescriptor() {
+        return Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class);
+    }
+}
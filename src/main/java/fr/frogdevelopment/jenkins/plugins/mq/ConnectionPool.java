@@ -0,0 +1,326 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.ConnectionFactory;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.security.GeneralSecurityException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Connections kept open to the brokers, one or more per Rabbit-MQ configuration, so publishing does not open a new
+ * connection each time and the broker can still return messages after the publishing step is over.<br>
+ * A connection is served by a single thread on the client and on the broker : a busy configuration can spread its
+ * publishes over several connections, picked in turn or by least number of in-flight publishes.<br>
+ * The connections are re-opened when the password of their configuration changes (eg: rotated credentials).
+ */
+class ConnectionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+    enum Selection {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    private final Map<String, ConnectionGroup> connections = new ConcurrentHashMap<>();
+    private final ReturnedMessages returnedMessages = new ReturnedMessages();
+    private final Map<String, ConnectionRecovery.Stats> recoveryStats = new ConcurrentHashMap<>();
+
+    PooledConnection get(RabbitConfig rabbitConfig) throws GeneralSecurityException {
+        String key = rabbitConfig.getConnectionKey();
+        String password = rabbitConfig.getCredentials().getPassword();
+
+        ConnectionGroup group = connections.get(key);
+        if (group == null || !Objects.equals(group.password, password)) {
+            synchronized (this) {
+                group = connections.get(key);
+                if (group == null || !Objects.equals(group.password, password)) {
+                    if (group != null) {
+                        LOGGER.info("Password of {} changed, re-opening its connections", rabbitConfig.getName());
+                        group.retire();
+                    }
+                    group = newGroup(rabbitConfig, password);
+                    connections.put(key, group);
+                }
+            }
+        }
+
+        PooledConnection connection = group.select(rabbitConfig.getSelection());
+
+        // do not publish to a connection being recovered
+        connection.gate.await();
+
+        return connection;
+    }
+
+    private ConnectionGroup newGroup(RabbitConfig rabbitConfig, String password) throws GeneralSecurityException {
+        ConnectionRecovery.Stats stats = recoveryStats.computeIfAbsent(rabbitConfig.getName(),
+                name -> new ConnectionRecovery.Stats());
+
+        // the connections are opened on their first publish
+        PooledConnection[] members = new PooledConnection[rabbitConfig.getConnectionCount()];
+        for (int i = 0; i < members.length; i++) {
+            ConnectionRecovery.Gate gate = new ConnectionRecovery.Gate(rabbitConfig.getName(), stats);
+            members[i] = rabbitConfig.getNativeClient()
+                    ? new PooledConnection(RabbitMqFactory.getConnectionFactory(rabbitConfig), returnedMessages, gate)
+                    : new PooledConnection(RabbitMqFactory.getCachingConnectionFactory(rabbitConfig), returnedMessages, gate);
+        }
+        return new ConnectionGroup(members, password);
+    }
+
+    /**
+     * Get the connection of the configuration for a publish, it is not closed before being {@link
+     * PooledConnection#release() released}.
+     */
+    PooledConnection acquire(RabbitConfig rabbitConfig) throws GeneralSecurityException {
+        PooledConnection connection;
+        do {
+            // retired between its lookup and its acquisition : look up the new one
+            connection = get(rabbitConfig);
+        } while (!connection.tryAcquire());
+        return connection;
+    }
+
+    ReturnedMessages getReturnedMessages() {
+        return returnedMessages;
+    }
+
+    /**
+     * @return recovery counters, per Rabbit-MQ configuration
+     */
+    Map<String, ConnectionRecovery.Stats> getRecoveryStats() {
+        return new TreeMap<>(recoveryStats);
+    }
+
+    /**
+     * Close the connections of the configurations which do not exist anymore or whose connection settings changed,
+     * once their in-flight publishes are done. The connections of the unchanged configurations are kept.
+     *
+     * @param rabbitConfigs new configurations
+     */
+    synchronized void retain(Collection<RabbitConfig> rabbitConfigs) {
+        Set<String> keys = rabbitConfigs.stream()
+                .map(RabbitConfig::getConnectionKey)
+                .collect(Collectors.toSet());
+
+        connections.entrySet().removeIf(entry -> {
+            if (keys.contains(entry.getKey())) {
+                return false;
+            }
+            LOGGER.info("Configuration {} changed or removed, closing its connections",
+                    entry.getValue().members[0].gate.getRabbitName());
+            entry.getValue().retire();
+            return true;
+        });
+    }
+
+    /**
+     * Close all the connections once their in-flight publishes are done, they will be re-opened on next publish.
+     */
+    synchronized void clear() {
+        connections.values().forEach(ConnectionGroup::retire);
+        connections.clear();
+    }
+
+    /**
+     * Connections of a configuration, sharing its password.
+     */
+    static class ConnectionGroup {
+
+        private final PooledConnection[] members;
+        private final String password;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private ConnectionGroup(PooledConnection[] members, String password) {
+            this.members = members;
+            this.password = password;
+        }
+
+        PooledConnection select(Selection selection) {
+            if (members.length == 1) {
+                return members[0];
+            }
+
+            if (selection == Selection.LEAST_LOADED) {
+                PooledConnection least = members[0];
+                int leastInFlight = least.getInFlight();
+                for (int i = 1; i < members.length; i++) {
+                    int inFlight = members[i].getInFlight();
+                    if (inFlight < leastInFlight) {
+                        least = members[i];
+                        leastInFlight = inFlight;
+                    }
+                }
+                return least;
+            }
+
+            return members[Math.floorMod(next.getAndIncrement(), members.length)];
+        }
+
+        private void retire() {
+            for (PooledConnection connection : members) {
+                connection.retire();
+            }
+        }
+    }
+
+    /**
+     * Connection of a configuration, used through the template of Spring AMQP or through the native client.
+     */
+    static class PooledConnection {
+
+        // template of Spring AMQP, null with the native client
+        private final CachingConnectionFactory factory;
+        private final RabbitTemplate template;
+        private final RabbitTemplate mandatoryTemplate;
+        // native client, null with the template
+        private final NativePublisher nativePublisher;
+        private final ConnectionRecovery.Gate gate;
+        // declarations done on the connection, the broker may have lost the non durable ones when it is re-opened
+        private final Set<String> declared = ConcurrentHashMap.newKeySet();
+
+        private int inFlight;
+        private boolean retired;
+        private boolean destroyed;
+
+        private PooledConnection(CachingConnectionFactory factory, ReturnedMessages returnedMessages,
+                                 ConnectionRecovery.Gate gate) {
+            this.factory = factory;
+            // never closed : the factory re-opens the connection itself, without the recovery of the client
+            this.gate = gate;
+            this.factory.addConnectionListener(connection -> declared.clear());
+            this.factory.setPublisherReturns(true);
+
+            this.template = RabbitMqFactory.getRabbitTemplate(factory);
+
+            this.mandatoryTemplate = RabbitMqFactory.getRabbitTemplate(factory);
+            this.mandatoryTemplate.setMandatory(true);
+            this.mandatoryTemplate.setReturnCallback(returnedMessages);
+
+            this.nativePublisher = null;
+        }
+
+        private PooledConnection(ConnectionFactory connectionFactory, ReturnedMessages returnedMessages,
+                                 ConnectionRecovery.Gate gate) {
+            this.factory = null;
+            this.template = null;
+            this.mandatoryTemplate = null;
+            this.gate = gate;
+            ConnectionRecovery.applyTo(connectionFactory);
+            this.gate.watch(connectionFactory);
+            this.gate.onRecovery(declared::clear);
+
+            this.nativePublisher = new NativePublisher(connectionFactory, gate, returnedMessages, declared::clear);
+        }
+
+        /**
+         * Open the connection if it is not yet (first publish, or closed since), acquiring it does not.
+         */
+        void connect() {
+            if (nativePublisher != null) {
+                nativePublisher.connect();
+            } else {
+                // the shared connection of the factory, closing it would be a no-op
+                factory.createConnection();
+            }
+        }
+
+        /**
+         * Declare the exchanges, queues and bindings not declared yet on this connection.
+         *
+         * @return number of declarations sent to the broker
+         */
+        int declare(Topology topology) {
+            if (topology.isEmpty()) {
+                return 0;
+            }
+            return nativePublisher != null
+                    ? nativePublisher.declare(topology, declared)
+                    : topology.declareMissing(template, declared);
+        }
+
+        /**
+         * Send a message, with the native client if the configuration uses it.
+         *
+         * @param properties properties of the message, null to keep the default ones
+         * @return number of messages sent
+         * @see MessageSender#send
+         */
+        int send(boolean mandatory, String exchange, String routingKey, String message, boolean conversion,
+                 int chunkSize, PublishProperties properties) {
+            if (nativePublisher != null) {
+                return nativePublisher.publish(mandatory, exchange, routingKey, message, conversion, chunkSize,
+                        properties);
+            }
+            return MessageSender.send(mandatory ? mandatoryTemplate : template, exchange, routingKey, message,
+                    conversion, chunkSize, properties);
+        }
+
+        private synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        private synchronized boolean tryAcquire() {
+            if (retired) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+
+        /**
+         * End of the publish, the connection can be closed.
+         */
+        void release() {
+            boolean destroy;
+            synchronized (this) {
+                inFlight--;
+                destroy = retired && inFlight == 0;
+            }
+            if (destroy) {
+                destroy();
+            }
+        }
+
+        /**
+         * Close the connection once the in-flight publishes are done, it can not be acquired anymore.
+         */
+        private void retire() {
+            boolean destroy;
+            synchronized (this) {
+                retired = true;
+                destroy = inFlight == 0;
+            }
+            if (destroy) {
+                destroy();
+            }
+        }
+
+        private void destroy() {
+            synchronized (this) {
+                // retired more than once (eg: configuration changed, then cleared)
+                if (destroyed) {
+                    return;
+                }
+                destroyed = true;
+            }
+            if (nativePublisher != null) {
+                nativePublisher.destroy();
+            } else {
+                factory.destroy();
+            }
+            gate.release();
+        }
+    }
+}
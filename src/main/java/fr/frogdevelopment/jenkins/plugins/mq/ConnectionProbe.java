@@ -0,0 +1,255 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measure the latency of each step of a connection to a broker : TCP connect, TLS handshake, AMQP handshake and
+ * publish round-trip (publish to the default exchange with a routing key bound to no queue, until confirmed by the
+ * broker) over a short burst.
+ */
+class ConnectionProbe {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionProbe.class);
+
+    private final int timeoutMillis;
+    private final int burst;
+
+    ConnectionProbe(int timeoutMillis, int burst) {
+        this.timeoutMillis = timeoutMillis;
+        this.burst = burst;
+    }
+
+    /**
+     * @return time given to a whole probe : each step has its own timeout, this one is for a broker answering too
+     * slowly at each step
+     */
+    long getProbeTimeoutMillis() {
+        return 4L * timeoutMillis + (long) burst * timeoutMillis / 10;
+    }
+
+    /**
+     * Probe all the configurations in parallel, each one on its own thread so a slow broker or a large number of
+     * configurations does not delay the other probes, and each one with its own timeout.
+     *
+     * @return result of each configuration, in the same order
+     */
+    List<Result> probeAll(List<RabbitConfig> rabbitConfigs) throws InterruptedException {
+        if (rabbitConfigs.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        ExecutorService executor = PublishExecutor.newExecutor(rabbitConfigs.size());
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (RabbitConfig rabbitConfig : rabbitConfigs) {
+                futures.add(executor.submit(() -> probe(rabbitConfig)));
+            }
+
+            // all started at once : the same deadline is the timeout of each probe
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getProbeTimeoutMillis());
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Result> future = futures.get(i);
+                try {
+                    results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    results.add(Result.timedOut(rabbitConfigs.get(i)));
+                } catch (ExecutionException e) {
+                    results.add(Result.of(rabbitConfigs.get(i), "Error : " + ExceptionUtils.getMessage(e.getCause())));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    Result probe(RabbitConfig rabbitConfig) {
+        Result result = new Result(rabbitConfig.getName(), rabbitConfig.getHost() + ":" + rabbitConfig.getPort());
+        try {
+            CachedCredentials credentials = rabbitConfig.getCredentials();
+            ConnectionFactory connectionFactory = RabbitMqFactory.createConnectionFactory(
+                    credentials.getUsername(),
+                    credentials.getPassword(),
+                    rabbitConfig.getHost(),
+                    rabbitConfig.getPort(),
+                    rabbitConfig.getTlsContext(),
+                    rabbitConfig.getVirtualHost()
+            );
+            connectionFactory.setConnectionTimeout(timeoutMillis);
+            connectionFactory.setHandshakeTimeout(timeoutMillis);
+
+            probeSocket(connectionFactory, rabbitConfig, result);
+
+            long start = System.nanoTime();
+            try (Connection connection = connectionFactory.newConnection("jenkins-diagnostics")) {
+                // the connection also does the TCP connect and the TLS handshake
+                double connectionOpen = millisSince(start);
+                result.amqpHandshake = Math.max(0, connectionOpen - result.tcpConnect - Math.max(0, result.tlsHandshake));
+
+                probePublish(connection, result);
+            }
+
+            result.status = "OK";
+        } catch (Exception e) {
+            LOGGER.warn("Diagnostics of {} failed", rabbitConfig.getName(), e);
+            result.status = "Error : " + ExceptionUtils.getMessage(e);
+        }
+
+        return result;
+    }
+
+    private void probeSocket(ConnectionFactory connectionFactory, RabbitConfig rabbitConfig, Result result)
+            throws Exception {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(rabbitConfig.getHost(), rabbitConfig.getPort()), timeoutMillis);
+            result.tcpConnect = millisSince(start);
+
+            SocketFactory socketFactory = connectionFactory.getSocketFactory();
+            if (socketFactory instanceof SSLSocketFactory) {
+                start = System.nanoTime();
+                try (SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) socketFactory)
+                        .createSocket(socket, rabbitConfig.getHost(), rabbitConfig.getPort(), false)) {
+                    sslSocket.setSoTimeout(timeoutMillis);
+                    sslSocket.startHandshake();
+                    result.tlsHandshake = millisSince(start);
+                }
+            }
+        }
+    }
+
+    private void probePublish(Connection connection, Result result) throws Exception {
+        Channel channel = connection.createChannel();
+        try {
+            channel.confirmSelect();
+
+            String routingKey = "jenkins.diagnostics." + UUID.randomUUID();
+            byte[] body = "diagnostics".getBytes(StandardCharsets.UTF_8);
+
+            double[] roundTrips = new double[burst];
+            for (int i = 0; i < burst; i++) {
+                long start = System.nanoTime();
+                channel.basicPublish("", routingKey, null, body);
+                channel.waitForConfirmsOrDie(timeoutMillis);
+                roundTrips[i] = millisSince(start);
+            }
+
+            Arrays.sort(roundTrips);
+            result.publishP50 = percentile(roundTrips, 50);
+            result.publishP95 = percentile(roundTrips, 95);
+            result.publishP99 = percentile(roundTrips, 99);
+            result.publishMax = roundTrips[roundTrips.length - 1];
+        } finally {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        }
+    }
+
+    static double percentile(double[] sortedValues, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, Math.min(index, sortedValues.length - 1))];
+    }
+
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public static class Result {
+
+        private final String name;
+        private final String address;
+        private double tcpConnect = -1;
+        private double tlsHandshake = -1;
+        private double amqpHandshake = -1;
+        private double publishP50 = -1;
+        private double publishP95 = -1;
+        private double publishP99 = -1;
+        private double publishMax = -1;
+        private String status;
+
+        Result(String name, String address) {
+            this.name = name;
+            this.address = address;
+        }
+
+        static Result timedOut(RabbitConfig rabbitConfig) {
+            return of(rabbitConfig, "Timed out");
+        }
+
+        static Result of(RabbitConfig rabbitConfig, String status) {
+            Result result = new Result(rabbitConfig.getName(), rabbitConfig.getHost() + ":" + rabbitConfig.getPort());
+            result.status = status;
+            return result;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public String getTcpConnect() {
+            return format(tcpConnect);
+        }
+
+        public String getTlsHandshake() {
+            return format(tlsHandshake);
+        }
+
+        public String getAmqpHandshake() {
+            return format(amqpHandshake);
+        }
+
+        public String getPublishP50() {
+            return format(publishP50);
+        }
+
+        public String getPublishP95() {
+            return format(publishP95);
+        }
+
+        public String getPublishP99() {
+            return format(publishP99);
+        }
+
+        public String getPublishMax() {
+            return format(publishMax);
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        private static String format(double millis) {
+            return millis < 0 ? "-" : String.format("%.1f", millis);
+        }
+    }
+}
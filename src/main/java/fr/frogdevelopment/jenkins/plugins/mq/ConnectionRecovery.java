@@ -0,0 +1,201 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryDelayHandler;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.impl.DefaultExceptionHandler;
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Automatic recovery of the connections kept open by the native client, after a network failure or a restart of the
+ * broker. The connections used through the template of Spring AMQP are not recovered by the client : its connection
+ * factory re-opens them on next publish.<br>
+ * The reconnection delays grow exponentially and are randomized, so all the controllers connected to a broker do not
+ * reconnect at the same instant during a rolling restart. While a pooled connection is recovering, the publishers wait
+ * for it (up to {@code fr.frogdevelopment.jenkins.plugins.mq.ConnectionRecovery.waitSeconds}, default 10) instead of
+ * failing at once.
+ */
+abstract class ConnectionRecovery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionRecovery.class);
+
+    static final int DEFAULT_INTERVAL = 5;
+    static final int DEFAULT_MAX_INTERVAL = 60;
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(
+            SystemProperties.getInteger(ConnectionRecovery.class.getName() + ".waitSeconds", 10));
+
+    private static volatile boolean enabled = true;
+    private static volatile long intervalMillis = TimeUnit.SECONDS.toMillis(DEFAULT_INTERVAL);
+    private static volatile long maxIntervalMillis = TimeUnit.SECONDS.toMillis(DEFAULT_MAX_INTERVAL);
+
+    /**
+     * Apply to the connections opened from now on.
+     *
+     * @param recovery    true to recover the connections automatically
+     * @param interval    base delay before reconnecting, in seconds
+     * @param maxInterval maximum delay between two reconnections, in seconds
+     */
+    static void configure(boolean recovery, int interval, int maxInterval) {
+        enabled = recovery;
+        intervalMillis = TimeUnit.SECONDS.toMillis(Math.max(1, interval));
+        maxIntervalMillis = Math.max(intervalMillis, TimeUnit.SECONDS.toMillis(maxInterval));
+    }
+
+    /**
+     * Recover the connections of the native client created by the factory.
+     */
+    static void applyTo(ConnectionFactory connectionFactory) {
+        connectionFactory.setAutomaticRecoveryEnabled(enabled);
+        connectionFactory.setRecoveryDelayHandler(new JitteredBackoff(intervalMillis, maxIntervalMillis, null));
+    }
+
+    /**
+     * Exponential backoff with a random jitter : the delay of an attempt is between half and the whole of
+     * {@code min(max, interval * 2^attempt)}.
+     */
+    static class JitteredBackoff implements RecoveryDelayHandler {
+
+        private final long intervalMillis;
+        private final long maxIntervalMillis;
+        private final Gate gate;
+
+        JitteredBackoff(long intervalMillis, long maxIntervalMillis, Gate gate) {
+            this.intervalMillis = intervalMillis;
+            this.maxIntervalMillis = maxIntervalMillis;
+            this.gate = gate;
+        }
+
+        @Override
+        public long getDelay(int recoveryAttempts) {
+            if (recoveryAttempts == 0 && gate != null) {
+                // first call, as soon as the connection is lost and before waiting for the first attempt
+                gate.close();
+            }
+
+            long cap = Math.min(maxIntervalMillis, intervalMillis << Math.min(recoveryAttempts, 20));
+            return cap / 2 + ThreadLocalRandom.current().nextLong(cap - cap / 2 + 1);
+        }
+    }
+
+    /**
+     * Recovery counters of a Rabbit-MQ configuration, kept when its connection is re-opened.
+     */
+    public static class Stats {
+
+        private final AtomicLong lost = new AtomicLong();
+        private final AtomicLong recovered = new AtomicLong();
+        private final AtomicLong failedAttempts = new AtomicLong();
+
+        public long getLost() {
+            return lost.get();
+        }
+
+        public long getRecovered() {
+            return recovered.get();
+        }
+
+        public long getFailedAttempts() {
+            return failedAttempts.get();
+        }
+    }
+
+    /**
+     * Blocks the publishers of a pooled connection while it is recovering.
+     */
+    static class Gate implements RecoveryListener {
+
+        private final String rabbitName;
+        private final Stats stats;
+
+        private boolean open = true;
+        private volatile Runnable onRecovery = () -> {
+        };
+
+        Gate(String rabbitName, Stats stats) {
+            this.rabbitName = rabbitName;
+            this.stats = stats;
+        }
+
+        String getRabbitName() {
+            return rabbitName;
+        }
+
+        /**
+         * @param onRecovery action to run once a connection is recovered, before releasing the publishers
+         */
+        void onRecovery(Runnable onRecovery) {
+            this.onRecovery = onRecovery;
+        }
+
+        /**
+         * Watch the recoveries of the connections created by the factory.
+         */
+        void watch(ConnectionFactory connectionFactory) {
+            connectionFactory.setRecoveryDelayHandler(new JitteredBackoff(intervalMillis, maxIntervalMillis, this));
+            connectionFactory.setExceptionHandler(new DefaultExceptionHandler() {
+                @Override
+                public void handleConnectionRecoveryException(Connection conn, Throwable exception) {
+                    stats.failedAttempts.incrementAndGet();
+                    LOGGER.warn("Recovery of the connection to {} failed, retrying : {}", rabbitName, exception.toString());
+                }
+            });
+        }
+
+        private synchronized void close() {
+            if (open) {
+                open = false;
+                stats.lost.incrementAndGet();
+                LOGGER.warn("Connection to {} lost, recovering it", rabbitName);
+            }
+        }
+
+        /**
+         * Release the publishers, the connection is recovered or closed.
+         */
+        synchronized void release() {
+            open = true;
+            notifyAll();
+        }
+
+        @Override
+        public void handleRecoveryStarted(Recoverable recoverable) {
+            close();
+        }
+
+        @Override
+        public void handleRecovery(Recoverable recoverable) {
+            stats.recovered.incrementAndGet();
+            LOGGER.info("Connection to {} recovered", rabbitName);
+            onRecovery.run();
+            release();
+        }
+
+        /**
+         * @throws IllegalStateException if the connection is still recovering after the wait
+         */
+        synchronized void await() {
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            try {
+                long remaining = WAIT_MILLIS;
+                while (!open && remaining > 0) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (!open) {
+                throw new IllegalStateException("Connection to " + rabbitName + " is recovering");
+            }
+        }
+    }
+}
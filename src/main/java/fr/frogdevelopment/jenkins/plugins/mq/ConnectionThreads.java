@@ -0,0 +1,190 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.impl.FrameHandlerFactory;
+import com.rabbitmq.client.impl.nio.NioParams;
+import com.rabbitmq.client.impl.nio.SocketChannelFrameHandlerFactory;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads shared by all the connections opened by the plugin, so the number of threads does not grow with the number
+ * of brokers, virtual hosts and connections.<br>
+ * The consumer work (returned messages) and the heartbeats of all the connections always run on shared pools. In NIO
+ * mode, the I/O of all the connections is multiplexed on a few I/O loops instead of one reader thread per connection :
+ * the connections with the same TLS settings share the same loops, whatever their configuration. The loops run on an
+ * executor sized to their number.
+ */
+abstract class ConnectionThreads {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionThreads.class);
+
+    static final int DEFAULT_IO_THREADS = 1;
+    private static final int CONSUMER_THREADS = SystemProperties.getInteger(
+            ConnectionThreads.class.getName() + ".consumerThreads", 2);
+    private static final int HEARTBEAT_THREADS = SystemProperties.getInteger(
+            ConnectionThreads.class.getName() + ".heartbeatThreads", 1);
+
+    private static final String PLAIN = "plain";
+
+    private static volatile boolean useNio;
+    private static volatile int ioThreads = DEFAULT_IO_THREADS;
+
+    // I/O loops per TLS settings and connection timeout
+    private static final Map<String, FrameHandlerFactory> frameHandlerFactories = new HashMap<>();
+    private static ThreadPoolExecutor ioExecutor;
+    private static ExecutorService consumerExecutor;
+    private static ScheduledExecutorService heartbeatExecutor;
+
+    /**
+     * Apply to the connections opened from now on.
+     *
+     * @param nio     true to use NIO
+     * @param threads number of I/O loops shared by the connections in NIO mode
+     */
+    static synchronized void configure(boolean nio, int threads) {
+        int newIoThreads = Math.max(1, threads);
+        if (nio != useNio || newIoThreads != ioThreads) {
+            // the loops already started end with their connections
+            frameHandlerFactories.clear();
+            if (ioExecutor != null) {
+                ioExecutor.shutdown();
+                ioExecutor = null;
+            }
+        }
+        useNio = nio;
+        ioThreads = newIoThreads;
+        LOGGER.info("Connections I/O : {}", nio ? "NIO with " + ioThreads + " shared thread(s)" : "blocking");
+    }
+
+    /**
+     * @param tlsContext TLS context of the connections, null if not secure
+     * @return factory whose connections use the shared I/O loops in NIO mode
+     */
+    static ConnectionFactory newConnectionFactory(TlsContext tlsContext) {
+        return new SharedIoConnectionFactory(tlsContext);
+    }
+
+    /**
+     * Use the shared threads for the connections opened by the factory. Must be called before the TLS settings are
+     * applied, as they are added to the NIO settings.
+     */
+    static synchronized void applyTo(ConnectionFactory connectionFactory) {
+        if (consumerExecutor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(CONSUMER_THREADS, CONSUMER_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), threadFactory("RabbitMQ consumer"));
+            pool.allowCoreThreadTimeOut(true);
+            consumerExecutor = pool;
+        }
+        if (heartbeatExecutor == null) {
+            ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(HEARTBEAT_THREADS,
+                    threadFactory("RabbitMQ heartbeat"));
+            pool.setRemoveOnCancelPolicy(true);
+            heartbeatExecutor = pool;
+        }
+        connectionFactory.setSharedExecutor(consumerExecutor);
+        connectionFactory.setHeartbeatExecutor(heartbeatExecutor);
+
+        if (useNio) {
+            connectionFactory.useNio();
+            connectionFactory.getNioParams().setNbIoThreads(ioThreads);
+        }
+        if (connectionFactory instanceof SharedIoConnectionFactory) {
+            ((SharedIoConnectionFactory) connectionFactory).sharedIo = useNio;
+        }
+    }
+
+    /**
+     * @return the I/O loops shared by the connections with the same TLS settings and connection timeout as the factory
+     */
+    private static synchronized FrameHandlerFactory frameHandlerFactory(ConnectionFactory connectionFactory,
+                                                                        TlsContext tlsContext) throws IOException {
+        String key = (tlsContext != null ? tlsContext.getSettingsKey() : PLAIN)
+                + "|" + connectionFactory.getConnectionTimeout();
+        FrameHandlerFactory frameHandlerFactory = frameHandlerFactories.get(key);
+        if (frameHandlerFactory == null) {
+            // one thread per loop : the loops are long running tasks
+            int loops = ioThreads * (frameHandlerFactories.size() + 1);
+            if (ioExecutor == null) {
+                ioExecutor = new ThreadPoolExecutor(loops, loops, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                        threadFactory("RabbitMQ I/O"));
+                ioExecutor.allowCoreThreadTimeOut(true);
+            } else {
+                ioExecutor.setMaximumPoolSize(loops);
+                ioExecutor.setCorePoolSize(loops);
+            }
+
+            // the settings of the first factory, with its TLS engine configurator
+            NioParams nioParams = new NioParams(connectionFactory.getNioParams())
+                    .setNbIoThreads(ioThreads)
+                    .setNioExecutor(ioExecutor);
+            SSLContext sslContext = tlsContext != null ? tlsContext.getSslContext() : null;
+            frameHandlerFactory = new SocketChannelFrameHandlerFactory(connectionFactory.getConnectionTimeout(),
+                    nioParams, sslContext != null, sslContext != null ? name -> sslContext : null);
+            frameHandlerFactories.put(key, frameHandlerFactory);
+        }
+        return frameHandlerFactory;
+    }
+
+    /**
+     * @return executor of the I/O loops, null if none started
+     */
+    static synchronized ThreadPoolExecutor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    private static NamingThreadFactory threadFactory(String name) {
+        return new NamingThreadFactory(new DaemonThreadFactory(), name);
+    }
+
+    /**
+     * Stop the shared threads, the connections must be closed first.
+     */
+    static synchronized void shutdown() {
+        frameHandlerFactories.clear();
+        if (ioExecutor != null) {
+            ioExecutor.shutdownNow();
+            ioExecutor = null;
+        }
+        if (consumerExecutor != null) {
+            consumerExecutor.shutdownNow();
+            consumerExecutor = null;
+        }
+        if (heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+            heartbeatExecutor = null;
+        }
+    }
+
+    /**
+     * Factory taking its I/O loops from the shared ones in NIO mode, instead of starting its own.
+     */
+    static class SharedIoConnectionFactory extends ConnectionFactory {
+
+        private final TlsContext tlsContext;
+        private volatile boolean sharedIo;
+
+        private SharedIoConnectionFactory(TlsContext tlsContext) {
+            this.tlsContext = tlsContext;
+        }
+
+        @Override
+        protected synchronized FrameHandlerFactory createFrameHandlerFactory() throws IOException {
+            return sharedIo ? frameHandlerFactory(this, tlsContext) : super.createFrameHandlerFactory();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded, time-expiring set of idempotency keys already published from this controller.<br>
+ * Keys are kept in insertion order, so expired entries are always at the head of the map and the oldest entry is
+ * evicted first when the cache is full.
+ */
+class DeduplicationCache {
+
+    private final int maxSize;
+    private final long windowMillis;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<String, Long> keys;
+
+    DeduplicationCache(int maxSize, long window, TimeUnit unit) {
+        this(maxSize, window, unit, System::currentTimeMillis);
+    }
+
+    DeduplicationCache(int maxSize, long window, TimeUnit unit, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.windowMillis = unit.toMillis(window);
+        this.clock = clock;
+        this.keys = new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > DeduplicationCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Register the key if it was not seen within the window.
+     *
+     * @param key idempotency key
+     * @return true if the key was registered (message must be sent), false if it is a duplicate
+     */
+    synchronized boolean tryAcquire(String key) {
+        long now = clock.getAsLong();
+        purge(now);
+
+        if (keys.containsKey(key)) {
+            return false;
+        }
+
+        keys.put(key, now);
+        return true;
+    }
+
+    /**
+     * Forget the key, typically because the publish failed and a retry must not be suppressed.
+     *
+     * @param key idempotency key
+     */
+    synchronized void release(String key) {
+        keys.remove(key);
+    }
+
+    synchronized int size() {
+        purge(clock.getAsLong());
+        return keys.size();
+    }
+
+    private void purge(long now) {
+        Iterator<Long> iterator = keys.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next() < windowMillis) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.ConnectionPool.PooledConnection;
+import fr.frogdevelopment.jenkins.plugins.mq.PublishStatsAction.StepStats;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import jenkins.util.SystemProperties;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Delivery of the events emitted by the plugin in background (not by a build step), to the exchange defined by each
+ * Rabbit-MQ configuration.<br>
+ * Events are queued in a lane, critical or bulk, and sent by a single thread of the {@link PublishExecutor} (a virtual
+ * one when the JVM supports them) draining the lanes with weights : up to
+ * {@code fr.frogdevelopment.jenkins.plugins.mq.EventDispatcher.criticalWeight} (default 8) critical events are sent
+ * for each bulk event, so a burst of bulk events does not delay the critical ones. The lane of an event type can be
+ * changed per configuration.<br>
+ * Each lane is bounded, when the broker can not keep up the events are dropped following the {@link Backpressure}
+ * policy and counted, rather than filling the memory of the controller.
+ */
+class EventDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventDispatcher.class);
+
+    static final int CRITICAL_WEIGHT = SystemProperties.getInteger(EventDispatcher.class.getName() + ".criticalWeight", 8);
+
+    enum Lane {
+        CRITICAL,
+        BULK
+    }
+
+    enum EventType {
+        QUEUE_WAITING("queue.waiting", "started_live", Lane.BULK),
+        QUEUE_BLOCKED("queue.blocked", "queue.blocked", Lane.BULK),
+        QUEUE_BUILDABLE("queue.buildable", "queue.buildable", Lane.BULK),
+        QUEUE_LEFT("queue.left", "queue.left", Lane.CRITICAL),
+        QUEUE_CANCELLED("queue.cancelled", "queue.cancelled", Lane.CRITICAL);
+
+        private final String id;
+        private final String routingKey;
+        private final Lane defaultLane;
+
+        EventType(String id, String routingKey, Lane defaultLane) {
+            this.id = id;
+            this.routingKey = routingKey;
+            this.defaultLane = defaultLane;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        String getRoutingKey() {
+            return routingKey;
+        }
+
+        Lane getDefaultLane() {
+            return defaultLane;
+        }
+
+        static EventType fromId(String id) {
+            for (EventType type : values()) {
+                if (type.id.equals(id)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown event type : " + id);
+        }
+    }
+
+    private final int criticalWeight;
+    private final Backpressure backpressure;
+    private final Supplier<List<RabbitConfig>> rabbitConfigs;
+    private final Consumer<Event> sender;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<Lane, Deque<Event>> lanes = new EnumMap<>(Lane.class);
+    private final Map<Lane, Integer> sampleCounters = new EnumMap<>(Lane.class);
+    private final ConcurrentMap<String, AtomicLong> droppedCounts = new ConcurrentHashMap<>();
+    private int criticalStreak;
+    private Thread drainer;
+
+    /**
+     * @param criticalWeight number of critical events sent for each bulk event when both lanes are not empty
+     * @param backpressure   limits of the lanes
+     * @param rabbitConfigs  configurations to send the events to
+     * @param sender         sending of an event, called by the draining thread only
+     */
+    EventDispatcher(int criticalWeight, Backpressure backpressure, Supplier<List<RabbitConfig>> rabbitConfigs,
+                    Consumer<Event> sender) {
+        this.criticalWeight = criticalWeight;
+        this.backpressure = backpressure;
+        this.rabbitConfigs = rabbitConfigs;
+        this.sender = sender;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new ArrayDeque<>());
+            sampleCounters.put(lane, 0);
+        }
+    }
+
+    /**
+     * Queue an event for each configuration with an events exchange, never waits for the broker.
+     *
+     * @param type type of the event
+     * @param body body of the event
+     */
+    void publish(EventType type, String body) {
+        for (RabbitConfig rabbitConfig : rabbitConfigs.get()) {
+            if (StringUtils.isNotBlank(rabbitConfig.getEventsExchange())) {
+                offer(new Event(rabbitConfig, type, rabbitConfig.getEventLane(type), body));
+            }
+        }
+    }
+
+    private void offer(Event event) {
+        lock.lock();
+        try {
+            Deque<Event> lane = lanes.get(event.lane);
+            if (!makeRoom(event.lane, lane)) {
+                dropped(event);
+                return;
+            }
+
+            lane.addLast(event);
+            notEmpty.signal();
+
+            if (drainer == null) {
+                drainer = PublishExecutor.start(this::drain, "RabbitMQ event dispatcher");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Apply the backpressure policy, the lock must be held.
+     *
+     * @return true if the new event can be added to the lane, false if it must be dropped
+     */
+    private boolean makeRoom(Lane lane, Deque<Event> events) {
+        int capacity = backpressure.getCapacity();
+        switch (backpressure.getPolicy()) {
+            case DROP_OLDEST:
+                if (events.size() >= capacity) {
+                    dropped(events.pollFirst());
+                }
+                return true;
+
+            case SAMPLE:
+                if (events.size() >= capacity) {
+                    return false;
+                }
+                if (events.size() >= capacity / 2) {
+                    int count = sampleCounters.get(lane);
+                    sampleCounters.put(lane, count + 1);
+                    return count % backpressure.getSampleRate() == 0;
+                }
+                return true;
+
+            case DROP_NEWEST:
+            default:
+                return events.size() < capacity;
+        }
+    }
+
+    private void dropped(Event event) {
+        long count = droppedCounts.computeIfAbsent(event.type.getId(), t -> new AtomicLong()).incrementAndGet();
+        if (count == 1 || count % 1000 == 0) {
+            LOGGER.warn("{} {} events dropped, Rabbit-MQ does not keep up (backpressure policy : {})",
+                    count, event.type.getId(), backpressure.getPolicy());
+        }
+    }
+
+    /**
+     * @return number of events dropped because their lane was full, per event type
+     */
+    Map<String, Long> getDroppedCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        droppedCounts.forEach((type, count) -> counts.put(type, count.get()));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return next event to send, critical ones first but letting a bulk one through after each weight of critical
+     */
+    private Event next() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                Deque<Event> critical = lanes.get(Lane.CRITICAL);
+                Deque<Event> bulk = lanes.get(Lane.BULK);
+
+                if (!critical.isEmpty() && (criticalStreak < criticalWeight || bulk.isEmpty())) {
+                    criticalStreak++;
+                    return critical.pollFirst();
+                }
+
+                if (!bulk.isEmpty()) {
+                    criticalStreak = 0;
+                    return bulk.pollFirst();
+                }
+
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Event event = next();
+                try {
+                    sender.accept(event);
+                } catch (Exception e) {
+                    LOGGER.error("Error while sending {} event to {}", event.type.getId(), event.rabbitConfig.getName(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the draining thread, events not sent yet are lost.
+     */
+    void stop() {
+        lock.lock();
+        try {
+            if (drainer != null) {
+                drainer.interrupt();
+                drainer = null;
+            }
+            lanes.values().forEach(Deque::clear);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param eventLanes list of lanes in the format <i>event-type=lane</i>
+     * @return lane per event type
+     * @throws IllegalArgumentException if a line is not in the expected format
+     */
+    static Map<EventType, Lane> parseLanes(String eventLanes) {
+        Map<EventType, Lane> parsed = new EnumMap<>(EventType.class);
+        if (StringUtils.isBlank(eventLanes)) {
+            return parsed;
+        }
+
+        for (String line : eventLanes.split("\\r?\\n")) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            int separator = line.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Incorrect lane format : " + line + ". Expected format is event-type=lane");
+            }
+
+            EventType type = EventType.fromId(line.substring(0, separator).trim());
+            String lane = line.substring(separator + 1).trim().toUpperCase();
+            try {
+                parsed.put(type, Lane.valueOf(lane));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Incorrect lane for line : " + line + ". Lanes are CRITICAL or BULK");
+            }
+        }
+
+        return parsed;
+    }
+
+    static class Event {
+
+        private final RabbitConfig rabbitConfig;
+        private final EventType type;
+        private final Lane lane;
+        private final String body;
+        private final long enqueuedMillis = System.currentTimeMillis();
+        private final long enqueuedNanos = System.nanoTime();
+
+        Event(RabbitConfig rabbitConfig, EventType type, Lane lane, String body) {
+            this.rabbitConfig = rabbitConfig;
+            this.type = type;
+            this.lane = lane;
+            this.body = body;
+        }
+
+        EventType getType() {
+            return type;
+        }
+
+        Lane getLane() {
+            return lane;
+        }
+
+        String getBody() {
+            return body;
+        }
+
+        void send(ConnectionPool connections) {
+            TraceContext trace = TraceContext.newTrace();
+            long dequeued = System.nanoTime();
+            try {
+                PooledConnection connection = connections.acquire(rabbitConfig);
+                try {
+                    connection.declare(rabbitConfig.getTopologyDeclarations());
+                    connection.send(false, rabbitConfig.getEventsExchange(), type.getRoutingKey(), body, false, 0,
+                            new PublishProperties().header(TraceContext.HEADER, trace.toTraceparent()));
+                } finally {
+                    connection.release();
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            long sent = System.nanoTime();
+
+            SpanExporter.exportAll(new PublishSpan("rabbitmq.event", trace, enqueuedMillis)
+                    .phase("queue", StepStats.millis(enqueuedNanos, dequeued))
+                    .phase("send", StepStats.millis(dequeued, sent))
+                    .attribute("rabbitName", rabbitConfig.getName())
+                    .attribute("exchange", rabbitConfig.getEventsExchange())
+                    .attribute("routingKey", type.getRoutingKey())
+                    .attribute("lane", lane));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.ConnectionPool.PooledConnection;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitMqDescriptor;
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONException;
+import net.sf.json.JSONSerializer;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.MessageProperties;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Endpoint publishing batches of newline-delimited JSON records, one message per record, through the connections of
+ * the plugin : <i>POST /rabbitmq-ingest/publish?rabbitName=...&amp;exchange=...&amp;routingKey=...</i><br>
+ * The body is read and published record per record, never kept in memory. Invalid records are skipped and reported in
+ * the response. The records go to any exchange of any configuration, so the caller must be an administrator. They are
+ * sent like the messages of the build steps, with the native client if the configuration uses it.
+ */
+@Extension
+public class IngestAction implements RootAction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestAction.class);
+
+    static final int MAX_RECORD_LENGTH = SystemProperties.getInteger(IngestAction.class.getName() + ".maxRecordLength", 1024 * 1024);
+    private static final int MAX_ERRORS = 10;
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Rabbit-MQ Ingest";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "rabbitmq-ingest";
+    }
+
+    @RequirePOST
+    public HttpResponse doPublish(StaplerRequest req, @QueryParameter String rabbitName,
+                                  @QueryParameter String exchange, @QueryParameter String routingKey) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        if (StringUtils.isBlank(exchange)) {
+            return HttpResponses.error(HttpServletResponse.SC_BAD_REQUEST, "Exchange required");
+        }
+
+        RabbitMqDescriptor descriptor = Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class);
+        RabbitConfig rabbitConfig = descriptor.getRabbitConfig(rabbitName);
+        if (rabbitConfig == null) {
+            return HttpResponses.error(HttpServletResponse.SC_NOT_FOUND, "Unknown rabbit config : " + rabbitName);
+        }
+
+        Batch batch = new Batch();
+        int status = HttpServletResponse.SC_OK;
+        try (Reader body = new BufferedReader(new InputStreamReader(req.getInputStream(), StandardCharsets.UTF_8))) {
+            PooledConnection connection = descriptor.getConnections().acquire(rabbitConfig);
+            try {
+                connection.declare(rabbitConfig.getTopologyDeclarations());
+                String key = StringUtils.defaultString(routingKey);
+                PublishProperties properties = batch.properties();
+                batch.publish(json -> connection.send(false, exchange, key, json, false, 0, properties), body);
+            } finally {
+                connection.release();
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error while ingesting records to {}", rabbitName, e);
+            batch.error(e.getMessage());
+            status = HttpServletResponse.SC_BAD_GATEWAY;
+        }
+
+        int responseStatus = status;
+        return (request, response, node) -> {
+            response.setStatus(responseStatus);
+            response.setContentType("application/json;charset=UTF-8");
+            response.getWriter().write(batch.toJson());
+        };
+    }
+
+    /**
+     * Records published from a request body.
+     */
+    static class Batch {
+
+        private final TraceContext trace = TraceContext.newTrace();
+        private int line;
+        private int published;
+        private int rejected;
+        private final List<String> errors = new ArrayList<>();
+
+        /**
+         * @return properties of the records : JSON content, in the trace of the batch
+         */
+        PublishProperties properties() {
+            return new PublishProperties()
+                    .contentType(MessageProperties.CONTENT_TYPE_JSON)
+                    .header(TraceContext.HEADER, trace.toTraceparent());
+        }
+
+        /**
+         * Publish each JSON record of the body, stopping at the first error of the broker.
+         *
+         * @param sender sends a record to the broker
+         */
+        void publish(Consumer<String> sender, Reader body) throws IOException {
+            StringBuilder record = new StringBuilder();
+            boolean truncated = false;
+            int c;
+            do {
+                c = body.read();
+                if (c != '\n' && c != -1) {
+                    if (record.length() < MAX_RECORD_LENGTH) {
+                        record.append((char) c);
+                    } else {
+                        truncated = true;
+                    }
+                    continue;
+                }
+
+                line++;
+                if (truncated) {
+                    reject("record longer than " + MAX_RECORD_LENGTH + " characters");
+                } else if (StringUtils.isNotBlank(record)) {
+                    String json = record.toString().trim();
+                    String invalid = validate(json);
+                    if (invalid != null) {
+                        reject(invalid);
+                    } else {
+                        sender.accept(json);
+                        published++;
+                    }
+                }
+                record.setLength(0);
+                truncated = false;
+            } while (c != -1);
+        }
+
+        /**
+         * @return why the record is not valid JSON, null if it is
+         */
+        private static String validate(String json) {
+            try {
+                JSONSerializer.toJSON(json);
+                return null;
+            } catch (JSONException e) {
+                return e.getMessage();
+            }
+        }
+
+        private void reject(String reason) {
+            rejected++;
+            error("line " + line + " : " + reason);
+        }
+
+        void error(String error) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+
+        int getPublished() {
+            return published;
+        }
+
+        int getRejected() {
+            return rejected;
+        }
+
+        String toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("published", published);
+            json.put("rejected", rejected);
+            json.put("errors", errors);
+            json.put("traceId", trace.getTraceId());
+            return JsonTemplate.write(json);
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.EnvVars;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * JSON message described by a list of <i>key=value</i> lines, compiled once into a write plan.<br>
+ * Syntax :
+ * <ul>
+ * <li>keys are converted following java nomenclature : NB_DAYS=1 => {"nbDays":"1"}</li>
+ * <li>dotted keys are nested objects : build.number=1 => {"build":{"number":"1"}}</li>
+ * <li>keys ending with [] are arrays, each line adds an element : tags[]=a => {"tags":["a"]}</li>
+ * <li>keys with an index are arrays of objects : steps[0].name=a => {"steps":[{"name":"a"}]}</li>
+ * <li>values are strings, as with the former conversion : nb=1 => {"nb":"1"}, except an unquoted null => {"nb":null}</li>
+ * <li>quoted values are always strings : version="null" => {"version":"null"}</li>
+ * <li>values can contain variables (eg: ${FOO} or $FOO)</li>
+ * <li>keys ending with :number, :boolean or :string force the type : count:number=$COUNT => {"count":42}, a value not
+ * of the type being null</li>
+ * </ul>
+ * The type of each value is decided when compiling, from the template only : the schema of the messages does not
+ * depend on the values of the variables. The plan is a list of literal JSON fragments (structure, keys and values
+ * without variables) and of values to render, so a message is written in a single pass.
+ */
+class JsonTemplate {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonTemplate.class);
+
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("-?(0|[1-9]\\d*)(\\.\\d+)?([eE][+-]?\\d+)?");
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("(?<name>[^.\\[\\]]+)(?:\\[(?<index>\\d*)])?");
+    private static final Pattern TYPED_KEY_PATTERN = Pattern.compile("(?<key>.+):(?<type>number|boolean|string)\\s*");
+
+    // String for literal fragments, Value for the values to render
+    private final List<Object> plan;
+    private final boolean variableKeys;
+
+    private JsonTemplate(List<Object> plan, boolean variableKeys) {
+        this.plan = plan;
+        this.variableKeys = variableKeys;
+    }
+
+    /**
+     * @param template list of <i>key=value</i> lines
+     * @return the compiled template
+     * @throws IllegalStateException if the template is incorrect, with the first error as message
+     */
+    static JsonTemplate compile(String template) {
+        ObjectNode root = new ObjectNode();
+        boolean variableKeys = false;
+        String firstError = null;
+
+        for (String line : template.split("\\r?\\n")) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            try {
+                String[] keyValue = parseLine(line);
+                variableKeys |= keyValue[0].indexOf('$') >= 0;
+
+                String key = keyValue[0];
+                Type type = null;
+                Matcher typedKey = TYPED_KEY_PATTERN.matcher(key);
+                if (typedKey.matches()) {
+                    key = typedKey.group("key");
+                    type = Type.valueOf(typedKey.group("type").toUpperCase(Locale.ENGLISH));
+                }
+                root.add(key, new Value(line, keyValue[1], type));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("\t- {}", e.getMessage());
+                if (firstError == null) {
+                    firstError = e.getMessage();
+                }
+            }
+        }
+
+        if (firstError != null) {
+            throw new IllegalStateException("Incorrect data : " + firstError);
+        }
+
+        List<Object> plan = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        root.compile(plan, literal);
+        plan.add(literal.toString());
+
+        return new JsonTemplate(plan, variableKeys);
+    }
+
+    /**
+     * @param line line of the template
+     * @return key and value of the line
+     * @throws IllegalArgumentException if the line is not in the format <i>key=value</i>
+     */
+    static String[] parseLine(String line) {
+        int separator = line.indexOf('=');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Incorrect data format : " + line + ". Expected format is key=value");
+        }
+
+        String key = line.substring(0, separator);
+        if (StringUtils.isBlank(key)) {
+            throw new IllegalArgumentException("Empty key for line : " + line);
+        }
+
+        return new String[]{key, line.substring(separator + 1)};
+    }
+
+    /**
+     * @return true if some keys contain variables, the template must then be compiled after resolving them
+     */
+    boolean hasVariableKeys() {
+        return variableKeys;
+    }
+
+    /**
+     * @param buildParameters build parameters used to render the values
+     * @param env             environment variables used to render the values, prevailing over the parameters
+     * @return the JSON message
+     */
+    String render(Map<String, String> buildParameters, EnvVars env) {
+        StringBuilder json = new StringBuilder();
+        for (Object fragment : plan) {
+            if (fragment instanceof String) {
+                json.append((String) fragment);
+            } else {
+                ((Value) fragment).render(json, buildParameters, env);
+            }
+        }
+        return json.toString();
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                case '\b':
+                    json.append("\\b");
+                    break;
+                case '\f':
+                    json.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Write a structured value as it is : maps are objects (their keys are not converted), lists and arrays are arrays,
+     * numbers and booleans are typed values, anything else is a string.
+     *
+     * @param json  JSON to append the value to
+     * @param value map, collection, array, number, boolean, null or any object written as a string
+     */
+    static void appendValue(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendString(json, String.valueOf(entry.getKey()));
+                json.append(':');
+                appendValue(json, entry.getValue());
+            }
+            json.append('}');
+        } else if (value instanceof Iterable) {
+            json.append('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendValue(json, element);
+            }
+            json.append(']');
+        } else if (value instanceof Object[]) {
+            appendValue(json, Arrays.asList((Object[]) value));
+        } else if (value instanceof Boolean) {
+            json.append(value);
+        } else if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            json.append(Double.isNaN(number) || Double.isInfinite(number) ? "null" : value.toString());
+        } else {
+            appendString(json, value.toString());
+        }
+    }
+
+    /**
+     * @see #appendValue(StringBuilder, Object)
+     */
+    static String write(Object value) {
+        StringBuilder json = new StringBuilder();
+        appendValue(json, value);
+        return json.toString();
+    }
+
+    private interface Node {
+
+        void compile(List<Object> plan, StringBuilder literal);
+    }
+
+    private static class ObjectNode implements Node {
+
+        private final Map<String, Node> fields = new LinkedHashMap<>();
+
+        private void add(String key, Value value) {
+            String[] segments = key.trim().split("\\.", -1);
+
+            ObjectNode current = this;
+            for (int i = 0; i < segments.length; i++) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(segments[i]);
+                if (!matcher.matches()) {
+                    throw new IllegalArgumentException("Incorrect key : " + key);
+                }
+
+                String name = Utils.toJava(matcher.group("name"));
+                String index = matcher.group("index");
+                boolean last = i == segments.length - 1;
+
+                if (index == null) {
+                    if (last) {
+                        current.put(key, name, value);
+                    } else {
+                        current = current.child(key, name);
+                    }
+                } else {
+                    ArrayNode array = current.array(key, name);
+                    if (index.isEmpty() && last) {
+                        array.elements.add(value);
+                    } else if (index.isEmpty()) {
+                        ObjectNode element = new ObjectNode();
+                        array.elements.add(element);
+                        current = element;
+                    } else {
+                        Node element = array.element(Integer.parseInt(index), last ? value : null);
+                        if (!(element instanceof ObjectNode)) {
+                            if (last) {
+                                continue;
+                            }
+                            throw new IllegalArgumentException("Conflicting key : " + key);
+                        }
+                        current = (ObjectNode) element;
+                    }
+                }
+            }
+        }
+
+        private void put(String key, String name, Value value) {
+            Node existing = fields.get(name);
+            if (existing != null && !(existing instanceof Value)) {
+                throw new IllegalArgumentException("Conflicting key : " + key);
+            }
+            // same key twice : last value wins
+            fields.put(name, value);
+        }
+
+        private ObjectNode child(String key, String name) {
+            Node child = fields.computeIfAbsent(name, n -> new ObjectNode());
+            if (!(child instanceof ObjectNode)) {
+                throw new IllegalArgumentException("Conflicting key : " + key);
+            }
+            return (ObjectNode) child;
+        }
+
+        private ArrayNode array(String key, String name) {
+            Node array = fields.computeIfAbsent(name, n -> new ArrayNode());
+            if (!(array instanceof ArrayNode)) {
+                throw new IllegalArgumentException("Conflicting key : " + key);
+            }
+            return (ArrayNode) array;
+        }
+
+        @Override
+        public void compile(List<Object> plan, StringBuilder literal) {
+            literal.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Node> field : fields.entrySet()) {
+                if (!first) {
+                    literal.append(',');
+                }
+                first = false;
+
+                appendString(literal, field.getKey());
+                literal.append(':');
+                field.getValue().compile(plan, literal);
+            }
+            literal.append('}');
+        }
+    }
+
+    private static class ArrayNode implements Node {
+
+        private final List<Node> elements = new ArrayList<>();
+        private final Map<Integer, Node> indexedElements = new HashMap<>();
+
+        /**
+         * @return the element at the index, created as the given value or as an object if not existing yet
+         */
+        private Node element(int index, Value value) {
+            Node element = indexedElements.get(index);
+            if (element == null) {
+                element = value != null ? value : new ObjectNode();
+                indexedElements.put(index, element);
+                elements.add(element);
+            } else if (value != null) {
+                throw new IllegalArgumentException("Duplicated array element : " + index);
+            }
+            return element;
+        }
+
+        @Override
+        public void compile(List<Object> plan, StringBuilder literal) {
+            literal.append('[');
+            for (int i = 0; i < elements.size(); i++) {
+                if (i > 0) {
+                    literal.append(',');
+                }
+                elements.get(i).compile(plan, literal);
+            }
+            literal.append(']');
+        }
+    }
+
+    private enum Type {
+        STRING,
+        NUMBER,
+        BOOLEAN
+    }
+
+    private static class Value implements Node {
+
+        private final String text;
+        private final boolean hasVariables;
+        private final Type type;
+        // unquoted null without type, written as is
+        private final boolean nullLiteral;
+
+        /**
+         * @param line line of the template, for the errors
+         * @param raw  value of the line
+         * @param type type given by the key, null if none
+         * @throws IllegalArgumentException if a literal value is not of the given type
+         */
+        private Value(String line, String raw, Type type) {
+            String trimmed = raw.trim();
+            boolean quoted = trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"");
+            this.text = quoted ? trimmed.substring(1, trimmed.length() - 1) : raw;
+            this.hasVariables = text.indexOf('$') >= 0;
+
+            this.type = type != null ? type : Type.STRING;
+            this.nullLiteral = type == null && !quoted && "null".equals(text);
+
+            if (!hasVariables && !"null".equals(text) && !matches(this.type, text)) {
+                throw new IllegalArgumentException("Incorrect " + this.type.name().toLowerCase(Locale.ENGLISH)
+                        + " value : " + line);
+            }
+        }
+
+        @Override
+        public void compile(List<Object> plan, StringBuilder literal) {
+            if (hasVariables) {
+                plan.add(literal.toString());
+                literal.setLength(0);
+                plan.add(this);
+            } else {
+                write(literal, text);
+            }
+        }
+
+        private void render(StringBuilder json, Map<String, String> buildParameters, EnvVars env) {
+            Matcher matcher = Utils.VARIABLE_PATTERN.matcher(text);
+
+            StringBuffer rendered = new StringBuffer();
+            while (matcher.find()) {
+                String variable = matcher.group("braced") != null ? matcher.group("braced") : matcher.group("name");
+
+                String replacement;
+                if (env.containsKey(variable)) {
+                    replacement = env.get(variable);
+                } else if (buildParameters.containsKey(variable)) {
+                    replacement = buildParameters.get(variable);
+                    if (replacement == null && matcher.start() == 0 && matcher.end() == text.length()) {
+                        // value is only a null parameter
+                        json.append("null");
+                        return;
+                    }
+                } else {
+                    replacement = matcher.group();
+                }
+
+                matcher.appendReplacement(rendered, Matcher.quoteReplacement(String.valueOf(replacement)));
+            }
+            matcher.appendTail(rendered);
+
+            String value = rendered.toString();
+            if (type == Type.STRING || matches(type, value)) {
+                write(json, value);
+            } else {
+                LOGGER.warn("Value {} is not a {}, written as null", value, type.name().toLowerCase(Locale.ENGLISH));
+                json.append("null");
+            }
+        }
+
+        private void write(StringBuilder json, String value) {
+            if (type == Type.STRING && !nullLiteral) {
+                appendString(json, value);
+            } else {
+                json.append(value);
+            }
+        }
+
+        private static boolean matches(Type type, String value) {
+            switch (type) {
+                case NUMBER:
+                    return NUMBER_PATTERN.matcher(value).matches();
+                case BOOLEAN:
+                    return "true".equals(value) || "false".equals(value);
+                case STRING:
+                default:
+                    return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.AMQP;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.MessagePropertiesBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Split a message body into sequenced chunks, so large payloads stay under the broker max message size and do not
+ * block the channel for other publishers.<br>
+ * Each chunk carries the headers needed by consumers to re-assemble the original body :
+ * <ul>
+ * <li>{@value #MESSAGE_ID_HEADER} : id shared by all the chunks of the message</li>
+ * <li>{@value #INDEX_HEADER} : index of the chunk, starting at 0</li>
+ * <li>{@value #COUNT_HEADER} : total number of chunks</li>
+ * <li>{@value #CHECKSUM_HEADER} : SHA-256 (hex) of the complete body</li>
+ * </ul>
+ */
+abstract class MessageChunker {
+
+    static final String MESSAGE_ID_HEADER = "x-chunk-message-id";
+    static final String INDEX_HEADER = "x-chunk-index";
+    static final String COUNT_HEADER = "x-chunk-count";
+    static final String CHECKSUM_HEADER = "x-chunk-checksum";
+
+    /**
+     * @param message   message to split, returned as is if its body is not larger than the chunk size
+     * @param chunkSize max size of a chunk body, in bytes
+     * @return chunks of the message, in sending order
+     */
+    static List<Message> split(Message message, int chunkSize) {
+        byte[] body = message.getBody();
+        if (chunkSize <= 0 || body.length <= chunkSize) {
+            return Collections.singletonList(message);
+        }
+
+        MessageProperties properties = message.getMessageProperties();
+        List<Message> chunks = new ArrayList<>();
+        split(body, properties.getMessageId(), chunkSize, (chunk, chunkMessageId, chunkHeaders) -> {
+            MessagePropertiesBuilder chunkProperties = MessagePropertiesBuilder.fromClonedProperties(properties)
+                    .setMessageId(chunkMessageId);
+            chunkHeaders.forEach(chunkProperties::setHeader);
+            chunks.add(new Message(chunk, chunkProperties.build()));
+        });
+        return chunks;
+    }
+
+    /**
+     * Split a message sent with the native client, with the same chunks as {@link #split(Message, int)}.
+     *
+     * @param body       body of the message
+     * @param properties properties of the message
+     * @param chunkSize  max size of a chunk body, in bytes
+     * @param publisher  sends the chunks, in order
+     * @return number of chunks sent
+     */
+    static int split(byte[] body, AMQP.BasicProperties properties, int chunkSize, ChunkPublisher publisher)
+            throws IOException {
+        if (chunkSize <= 0 || body.length <= chunkSize) {
+            publisher.publish(body, properties);
+            return 1;
+        }
+
+        return split(body, properties.getMessageId(), chunkSize, (chunk, chunkMessageId, chunkHeaders) -> {
+            Map<String, Object> headers = properties.getHeaders() != null
+                    ? new HashMap<>(properties.getHeaders())
+                    : new HashMap<>();
+            headers.putAll(chunkHeaders);
+            publisher.publish(chunk, properties.builder()
+                    .messageId(chunkMessageId)
+                    .headers(headers)
+                    .build());
+        });
+    }
+
+    /**
+     * @param body      body larger than the chunk size
+     * @param messageId id of the message, a random one if null
+     * @param chunkSize max size of a chunk body, in bytes
+     * @param chunks    receives each chunk with its message id and re-assembly headers, in order
+     * @return number of chunks
+     */
+    static <E extends Exception> int split(byte[] body, String messageId, int chunkSize, Chunks<E> chunks) throws E {
+        String id = messageId != null ? messageId : UUID.randomUUID().toString();
+        String checksum = DigestUtils.sha256Hex(body);
+        int count = (body.length + chunkSize - 1) / chunkSize;
+
+        for (int index = 0; index < count; index++) {
+            int from = index * chunkSize;
+            int to = Math.min(from + chunkSize, body.length);
+
+            Map<String, Object> headers = new LinkedHashMap<>();
+            headers.put(MESSAGE_ID_HEADER, id);
+            headers.put(INDEX_HEADER, index);
+            headers.put(COUNT_HEADER, count);
+            headers.put(CHECKSUM_HEADER, checksum);
+
+            chunks.accept(Arrays.copyOfRange(body, from, to), id + "." + index, headers);
+        }
+
+        return count;
+    }
+
+    interface Chunks<E extends Exception> {
+
+        void accept(byte[] chunk, String chunkMessageId, Map<String, Object> chunkHeaders) throws E;
+    }
+
+    interface ChunkPublisher {
+
+        void publish(byte[] body, AMQP.BasicProperties properties) throws IOException;
+    }
+}
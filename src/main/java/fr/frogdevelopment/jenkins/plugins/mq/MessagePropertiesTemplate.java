@@ -0,0 +1,163 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.AMQP;
+import hudson.EnvVars;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message properties of a build step, compiled once from its configuration.<br>
+ * Static values (delivery mode, priority, expiration, content type and headers without variables) are resolved at
+ * compilation, only the headers referencing variables are rendered for each message.
+ */
+class MessagePropertiesTemplate {
+
+    static final MessagePropertiesTemplate EMPTY = new MessagePropertiesTemplate(null, null, null, null,
+            Collections.emptyMap(), Collections.emptyMap());
+
+    private final MessageDeliveryMode deliveryMode;
+    private final Integer priority;
+    private final String expiration;
+    private final String contentType;
+    private final Map<String, String> staticHeaders;
+    private final Map<String, String> dynamicHeaders;
+
+    private MessagePropertiesTemplate(MessageDeliveryMode deliveryMode, Integer priority, String expiration,
+                                      String contentType, Map<String, String> staticHeaders,
+                                      Map<String, String> dynamicHeaders) {
+        this.deliveryMode = deliveryMode;
+        this.priority = priority;
+        this.expiration = expiration;
+        this.contentType = contentType;
+        this.staticHeaders = staticHeaders;
+        this.dynamicHeaders = dynamicHeaders;
+    }
+
+    /**
+     * @param deliveryMode name of a {@link MessageDeliveryMode}, blank for the default one (persistent)
+     * @param priority     priority of the messages, blank for none
+     * @param expiration   TTL of the messages in milliseconds, blank for none
+     * @param contentType  content type of the messages, blank for the default one
+     * @param headers      list of headers in the format <i>name=value</i>, values can contain variables
+     * @return the compiled template
+     */
+    static MessagePropertiesTemplate compile(String deliveryMode, String priority, String expiration,
+                                             String contentType, String headers) {
+        Map<String, String> staticHeaders = new LinkedHashMap<>();
+        Map<String, String> dynamicHeaders = new LinkedHashMap<>();
+
+        for (String[] header : parseHeaders(headers)) {
+            if (header[1].indexOf('$') >= 0) {
+                dynamicHeaders.put(header[0], header[1]);
+            } else {
+                staticHeaders.put(header[0], header[1]);
+            }
+        }
+
+        if (StringUtils.isBlank(deliveryMode) && StringUtils.isBlank(priority) && StringUtils.isBlank(expiration)
+                && StringUtils.isBlank(contentType) && staticHeaders.isEmpty() && dynamicHeaders.isEmpty()) {
+            return EMPTY;
+        }
+
+        return new MessagePropertiesTemplate(
+                StringUtils.isBlank(deliveryMode) ? null : MessageDeliveryMode.valueOf(deliveryMode),
+                StringUtils.isBlank(priority) ? null : Integer.valueOf(priority.trim()),
+                StringUtils.trimToNull(expiration),
+                StringUtils.trimToNull(contentType),
+                staticHeaders,
+                dynamicHeaders);
+    }
+
+    /**
+     * @param headers list of headers in the format <i>name=value</i>
+     * @return name and value of each header
+     * @throws IllegalArgumentException if a line is not in the expected format
+     */
+    static List<String[]> parseHeaders(String headers) {
+        List<String[]> parsed = new ArrayList<>();
+        if (StringUtils.isBlank(headers)) {
+            return parsed;
+        }
+
+        for (String line : headers.split("\\r?\\n")) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            int separator = line.indexOf('=');
+            if (separator <= 0 || StringUtils.isBlank(line.substring(0, separator))) {
+                throw new IllegalArgumentException("Incorrect header format : " + line + ". Expected format is name=value");
+            }
+
+            parsed.add(new String[]{line.substring(0, separator).trim(), line.substring(separator + 1)});
+        }
+
+        return parsed;
+    }
+
+    boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    /**
+     * Set the properties of the template on the given message properties, rendering the dynamic headers.
+     *
+     * @param properties      properties of the message to send
+     * @param buildParameters parameters used to render the headers
+     * @param env             environment variables used to render the headers
+     */
+    void applyTo(MessageProperties properties, Map<String, String> buildParameters, EnvVars env) {
+        if (deliveryMode != null) {
+            properties.setDeliveryMode(deliveryMode);
+        }
+        if (priority != null) {
+            properties.setPriority(priority);
+        }
+        if (expiration != null) {
+            properties.setExpiration(expiration);
+        }
+        if (contentType != null) {
+            properties.setContentType(contentType);
+        }
+
+        staticHeaders.forEach(properties::setHeader);
+        dynamicHeaders.forEach((name, value) ->
+                properties.setHeader(name, Utils.getRawMessage(buildParameters, env.expand(value))));
+    }
+
+    /**
+     * Set the properties of the template on the given properties of the Java client, rendering the dynamic headers.
+     *
+     * @param properties      properties of the message to send
+     * @param headers         headers of the message to send, completed with the ones of the template
+     * @param buildParameters parameters used to render the headers
+     * @param env             environment variables used to render the headers
+     * @see #applyTo(MessageProperties, Map, EnvVars)
+     */
+    void applyTo(AMQP.BasicProperties.Builder properties, Map<String, Object> headers,
+                 Map<String, String> buildParameters, EnvVars env) {
+        if (deliveryMode != null) {
+            properties.deliveryMode(MessageDeliveryMode.toInt(deliveryMode));
+        }
+        if (priority != null) {
+            properties.priority(priority);
+        }
+        if (expiration != null) {
+            properties.expiration(expiration);
+        }
+        if (contentType != null) {
+            properties.contentType(contentType);
+        }
+
+        headers.putAll(staticHeaders);
+        dynamicHeaders.forEach((name, value) ->
+                headers.put(name, Utils.getRawMessage(buildParameters, env.expand(value))));
+    }
+}
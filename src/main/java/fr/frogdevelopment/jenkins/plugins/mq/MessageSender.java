@@ -0,0 +1,105 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.EnvVars;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.amqp.core.MessageBuilder.withBody;
+
+/**
+ * Rendering and sending of the message of a build step, shared by the publishing from the controller and from the
+ * agent, so it does not depend on the Jenkins model.
+ */
+abstract class MessageSender {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageSender.class);
+    private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+    /**
+     * @param jsonTemplate    template of the JSON message, null for a raw message
+     * @param data            data of the step
+     * @param buildParameters build parameters referenced by the data
+     * @param env             environment variables referenced by the data
+     * @return the message to send
+     */
+    static String render(JsonTemplate jsonTemplate, String data, Map<String, String> buildParameters, EnvVars env) {
+        if (jsonTemplate == null) {
+            return Utils.getRawMessage(buildParameters, env.expand(data));
+        }
+
+        if (jsonTemplate.hasVariableKeys()) {
+            // the structure depends on the build, it can not be compiled once
+            return Utils.getJsonMessage(buildParameters, env.expand(data));
+        }
+
+        return jsonTemplate.render(buildParameters, env);
+    }
+
+    /**
+     * @return properties of the message, null to keep the default ones
+     */
+    static PublishProperties publishProperties(MessagePropertiesTemplate template, Map<String, String> buildParameters,
+                                               EnvVars env, String messageId, String publishId, String traceparent) {
+        if (template.isEmpty() && messageId == null && publishId == null && traceparent == null) {
+            // keep the default properties
+            return null;
+        }
+
+        return new PublishProperties(template, buildParameters, env)
+                .messageId(messageId)
+                .header(ReturnedMessages.PUBLISH_ID_HEADER, publishId)
+                .header(TraceContext.HEADER, traceparent);
+    }
+
+    /**
+     * @param chunkSize maximum size of the body of the messages sent, 0 to send the message in one piece
+     * @return number of messages sent
+     */
+    static int send(RabbitTemplate rabbitTemplate, String exchange, String routingKey, String message,
+                    boolean conversion, int chunkSize, PublishProperties properties) {
+        if (chunkSize > 0) {
+            Message amqpMessage;
+            if (conversion) {
+                amqpMessage = rabbitTemplate.getMessageConverter().toMessage(message, new MessageProperties());
+            } else {
+                amqpMessage = withBody(message.getBytes(DEFAULT_CHARSET)).build();
+            }
+            if (properties != null) {
+                properties.applyTo(amqpMessage.getMessageProperties());
+            }
+
+            List<Message> chunks = MessageChunker.split(amqpMessage, chunkSize);
+            if (chunks.size() > 1) {
+                LOGGER.info("Message split in {} chunks of {} bytes", chunks.size(), chunkSize);
+            }
+            for (Message chunk : chunks) {
+                rabbitTemplate.send(exchange, routingKey, chunk);
+            }
+            return chunks.size();
+        } else if (conversion) {
+            if (properties == null) {
+                rabbitTemplate.convertAndSend(exchange, routingKey, message);
+            } else {
+                rabbitTemplate.convertAndSend(exchange, routingKey, message, m -> {
+                    properties.applyTo(m.getMessageProperties());
+                    return m;
+                });
+            }
+        } else {
+            Message amqpMessage = withBody(message.getBytes(DEFAULT_CHARSET)).build();
+            if (properties != null) {
+                properties.applyTo(amqpMessage.getMessageProperties());
+            }
+            rabbitTemplate.send(exchange, routingKey, amqpMessage);
+        }
+        return 1;
+    }
+}
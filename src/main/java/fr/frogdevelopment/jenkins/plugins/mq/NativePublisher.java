@@ -0,0 +1,211 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.ReturnListener;
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publishing straight to the channels of the Java client, without the caching connection factory and the template of
+ * Spring AMQP, for the configurations using the native client : all their messages (steps, events, ingest) go through
+ * it.<br>
+ * Raw and JSON messages are sent with the same body and properties as the template : raw messages are the UTF-8 bytes
+ * of the message, JSON messages are written by Jackson like the JSON converter of the template. The properties are
+ * built directly for the Java client, and the mandatory messages returned by the broker are correlated by the return
+ * listener of the channels. The idle channels are kept, up to
+ * {@code fr.frogdevelopment.jenkins.plugins.mq.NativePublisher.channelCacheSize} (default 25).
+ */
+class NativePublisher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NativePublisher.class);
+
+    static final int CHANNEL_CACHE_SIZE = SystemProperties.getInteger(NativePublisher.class.getName() + ".channelCacheSize", 25);
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final String ENCODING = StandardCharsets.UTF_8.name();
+    private static final int PERSISTENT = 2;
+
+    private final ConnectionFactory connectionFactory;
+    private final ConnectionRecovery.Gate gate;
+    private final ReturnListener returnListener;
+    private final Runnable onConnection;
+    private final BlockingQueue<Channel> idleChannels = new ArrayBlockingQueue<>(CHANNEL_CACHE_SIZE);
+
+    private Connection connection;
+
+    /**
+     * @param connectionFactory factory of the connection, with the recovery and the threads of the plugin
+     * @param gate              gate of the recoveries of the connection
+     * @param returnListener    listener of the mandatory messages returned by the broker
+     * @param onConnection      called each time a new connection is opened
+     */
+    NativePublisher(ConnectionFactory connectionFactory, ConnectionRecovery.Gate gate, ReturnListener returnListener,
+                    Runnable onConnection) {
+        this.connectionFactory = connectionFactory;
+        this.gate = gate;
+        this.returnListener = returnListener;
+        this.onConnection = onConnection;
+    }
+
+    /**
+     * @param chunkSize  maximum size of the body of the messages sent, 0 to send the message in one piece
+     * @param properties properties of the message, null to keep the default ones
+     * @return number of messages sent
+     * @see MessageSender#send
+     */
+    int publish(boolean mandatory, String exchange, String routingKey, String message, boolean conversion,
+                int chunkSize, PublishProperties properties) {
+        // default properties of the template
+        AMQP.BasicProperties.Builder builder = new AMQP.BasicProperties.Builder()
+                .deliveryMode(PERSISTENT)
+                .priority(0);
+        Map<String, Object> headers = new HashMap<>();
+        byte[] body;
+        if (conversion) {
+            body = toJson(message);
+            builder.contentType(MessageProperties.CONTENT_TYPE_JSON).contentEncoding(ENCODING);
+            headers.put(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME, String.class.getName());
+        } else {
+            body = message.getBytes(StandardCharsets.UTF_8);
+            builder.contentType(MessageProperties.CONTENT_TYPE_BYTES);
+        }
+        if (properties != null) {
+            properties.applyTo(builder, headers);
+        }
+        AMQP.BasicProperties basicProperties = builder.headers(headers).build();
+
+        String exchangeName = exchange == null ? "" : exchange;
+        String routingKeyName = routingKey == null ? "" : routingKey;
+        Channel channel = borrow();
+        try {
+            int messages = MessageChunker.split(body, basicProperties, chunkSize, (chunk, chunkProperties) ->
+                    channel.basicPublish(exchangeName, routingKeyName, mandatory, chunkProperties, chunk));
+            if (messages > 1) {
+                LOGGER.info("Message split in {} chunks of {} bytes", messages, chunkSize);
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            giveBack(channel);
+        }
+    }
+
+    private static byte[] toJson(String message) {
+        try {
+            return JSON.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @see Topology#declareMissing(Channel, Set)
+     */
+    int declare(Topology topology, Set<String> declared) {
+        Channel channel = borrow();
+        try {
+            return topology.declareMissing(channel, declared);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            giveBack(channel);
+        }
+    }
+
+    /**
+     * Open the connection if it is not yet, so the time to connect is not counted as sending time.
+     */
+    void connect() {
+        try {
+            connection();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Connection to " + gate.getRabbitName() + " timed out", e);
+        }
+    }
+
+    private Channel borrow() {
+        Channel channel;
+        while ((channel = idleChannels.poll()) != null) {
+            if (channel.isOpen()) {
+                return channel;
+            }
+        }
+
+        try {
+            channel = connection().createChannel();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Connection to " + gate.getRabbitName() + " timed out", e);
+        }
+        channel.addReturnListener(returnListener);
+        return channel;
+    }
+
+    private void giveBack(Channel channel) {
+        // closed by the broker on error (eg: unknown exchange), or too many idle ones
+        if (!channel.isOpen() || !idleChannels.offer(channel)) {
+            close(channel);
+        }
+    }
+
+    private synchronized Connection connection() throws IOException, TimeoutException {
+        // a recovering connection is not open but will be recovered, its publishers wait at the gate
+        if (connection == null || !connection.isOpen() && !(connection instanceof Recoverable)) {
+            idleChannels.clear();
+            connection = connectionFactory.newConnection("jenkins-" + gate.getRabbitName());
+            if (connection instanceof Recoverable) {
+                ((Recoverable) connection).addRecoveryListener(gate);
+            }
+            onConnection.run();
+        }
+        return connection;
+    }
+
+    private static void close(Channel channel) {
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            LOGGER.debug("Error while closing a channel", e);
+        }
+    }
+
+    /**
+     * Close the connection, the channels are closed with it.
+     */
+    synchronized void destroy() {
+        idleChannels.clear();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.debug("Error while closing the connection to {}", gate.getRabbitName(), e);
+            }
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads publishing to the brokers, outside of the Jenkins threads (queue, executors).<br>
+ * The publishes of the build steps (from the controller or from an agent), the background events and the probes of
+ * the diagnostics page run on one virtual thread per task when the JVM supports them (Java 21+). Otherwise they run
+ * on a pool of {@code fr.frogdevelopment.jenkins.plugins.mq.PublishExecutor.threads} (default 16) daemon threads whose
+ * queue is bounded by {@code fr.frogdevelopment.jenkins.plugins.mq.PublishExecutor.queueSize} (default 100), a full
+ * queue making the submitter run the task. So thousands of concurrent publishes do not need thousands of platform
+ * threads : a build step waiting for its publish parks its executor thread instead of doing the network I/O.<br>
+ * The reader threads of the connections stay on platform threads : they run for the whole life of the connection.<br>
+ * The plugin is compiled for Java 8, so virtual threads are looked up by reflection.
+ */
+abstract class PublishExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PublishExecutor.class);
+
+    private static final String THREAD_NAME = "RabbitMQ publisher";
+    static final int THREADS = SystemProperties.getInteger(PublishExecutor.class.getName() + ".threads", 16);
+    private static final int QUEUE_SIZE = SystemProperties.getInteger(PublishExecutor.class.getName() + ".queueSize", 100);
+
+    private static final ThreadFactory PLATFORM_THREAD_FACTORY = new NamingThreadFactory(new DaemonThreadFactory(), THREAD_NAME);
+
+    private static ExecutorService publishExecutor;
+
+    /**
+     * @return factory of platform threads, for the connections I/O
+     */
+    static ThreadFactory threadFactory() {
+        return PLATFORM_THREAD_FACTORY;
+    }
+
+    /**
+     * @return executor of the publishes, shared by the build steps
+     */
+    static synchronized ExecutorService publishExecutor() {
+        if (publishExecutor == null) {
+            publishExecutor = newExecutor(THREADS);
+        }
+        return publishExecutor;
+    }
+
+    /**
+     * Run a publish on the publish executor and wait for its result. The publish is interrupted if the calling thread
+     * is (eg: build aborted).
+     *
+     * @return result of the publish
+     * @throws Exception thrown by the publish
+     */
+    static <T> T call(Callable<T> publish) throws Exception {
+        Future<T> future = publishExecutor().submit(publish);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param task long running task, stopped by an interruption
+     * @return the started thread running the task, a virtual one when the JVM supports them
+     */
+    static Thread start(Runnable task, String name) {
+        ThreadFactory virtualThreadFactory = virtualThreadFactory();
+        Thread thread = (virtualThreadFactory != null ? virtualThreadFactory : PLATFORM_THREAD_FACTORY).newThread(task);
+        thread.setName(name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Stop the publishes not done yet.
+     */
+    static synchronized void shutdown() {
+        if (publishExecutor != null) {
+            publishExecutor.shutdownNow();
+            publishExecutor = null;
+        }
+    }
+
+    /**
+     * @param threads number of tasks to run in parallel without virtual threads
+     * @return executor to run blocking tasks in parallel, to shut down after use
+     */
+    static ExecutorService newExecutor(int threads) {
+        ThreadFactory virtualThreadFactory = virtualThreadFactory();
+        if (virtualThreadFactory != null) {
+            try {
+                // Executors.newThreadPerTaskExecutor(ThreadFactory) : Java 21+
+                Method newThreadPerTaskExecutor = java.util.concurrent.Executors.class
+                        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) newThreadPerTaskExecutor.invoke(null, virtualThreadFactory);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.warn("Virtual threads not available, using a pool of {} threads", threads, e);
+            }
+        }
+
+        return newPool(threads, QUEUE_SIZE);
+    }
+
+    /**
+     * @return pool of platform threads, a full queue making the submitter run the task
+     */
+    static ExecutorService newPool(int threads, int queueSize) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), PLATFORM_THREAD_FACTORY, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * @return factory of virtual threads, null if the JVM does not support them
+     */
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            // Thread.ofVirtual().name(THREAD_NAME + " ", 0).factory() : Java 21+
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME + " ", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.AMQP;
+import hudson.EnvVars;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Properties of the messages of a publish, on top of the default ones : the properties of the step, its message id and
+ * the headers of the plugin (returned messages, trace).<br>
+ * They are set on the message properties of the template, or straight on the properties of the Java client for the
+ * native client, which then never goes through the message properties of Spring AMQP.
+ */
+final class PublishProperties {
+
+    private final MessagePropertiesTemplate template;
+    private final Map<String, String> buildParameters;
+    private final EnvVars env;
+    private String contentType;
+    private String messageId;
+    private final Map<String, Object> headers = new LinkedHashMap<>();
+
+    /**
+     * @param template        properties of the step
+     * @param buildParameters parameters used to render the headers of the step
+     * @param env             environment variables used to render the headers of the step
+     */
+    PublishProperties(MessagePropertiesTemplate template, Map<String, String> buildParameters, EnvVars env) {
+        this.template = template;
+        this.buildParameters = buildParameters;
+        this.env = env;
+    }
+
+    /**
+     * Properties without the ones of a step.
+     */
+    PublishProperties() {
+        this(MessagePropertiesTemplate.EMPTY, Collections.emptyMap(), null);
+    }
+
+    PublishProperties contentType(String contentType) {
+        this.contentType = contentType;
+        return this;
+    }
+
+    PublishProperties messageId(String messageId) {
+        this.messageId = messageId;
+        return this;
+    }
+
+    /**
+     * @param value value of the header, not set if null
+     */
+    PublishProperties header(String name, Object value) {
+        if (value != null) {
+            headers.put(name, value);
+        }
+        return this;
+    }
+
+    /**
+     * @param properties properties of a message sent with the template
+     */
+    void applyTo(MessageProperties properties) {
+        template.applyTo(properties, buildParameters, env);
+        if (contentType != null) {
+            properties.setContentType(contentType);
+        }
+        if (messageId != null) {
+            properties.setMessageId(messageId);
+        }
+        headers.forEach(properties::setHeader);
+    }
+
+    /**
+     * @param properties     properties of a message sent with the native client
+     * @param messageHeaders headers of the message, completed with the ones of the publish
+     */
+    void applyTo(AMQP.BasicProperties.Builder properties, Map<String, Object> messageHeaders) {
+        template.applyTo(properties, messageHeaders, buildParameters, env);
+        if (contentType != null) {
+            properties.contentType(contentType);
+        }
+        if (messageId != null) {
+            properties.messageId(messageId);
+        }
+        messageHeaders.putAll(headers);
+    }
+}
@@ -0,0 +1,99 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.PublishStatsAction.StepStats;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timing of a published message, in the trace sent with the message.<br>
+ * The phases are the consecutive steps of the publish (eg: render, connect, send), in milliseconds.
+ */
+public class PublishSpan {
+
+    private final String name;
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final long startEpochMillis;
+    private final Map<String, Double> phases = new LinkedHashMap<>();
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+
+    PublishSpan(String name, TraceContext traceContext, long startEpochMillis) {
+        this.name = name;
+        this.traceId = traceContext.getTraceId();
+        this.spanId = traceContext.getSpanId();
+        this.parentSpanId = traceContext.getParentSpanId();
+        this.startEpochMillis = startEpochMillis;
+    }
+
+    /**
+     * @param trace            context sent with the message of the step
+     * @param startEpochMillis start of the step
+     * @param stats            statistics of the step
+     * @param routingKey       routing key of the step
+     */
+    static PublishSpan forStep(TraceContext trace, long startEpochMillis, StepStats stats, String routingKey) {
+        return new PublishSpan("rabbitmq.publish", trace, startEpochMillis)
+                .phase("render", stats.getRenderMillis())
+                .phase("connect", stats.getConnectMillis())
+                .phase("send", stats.getSendMillis())
+                .attribute("rabbitName", stats.getRabbitName())
+                .attribute("exchange", stats.getExchange())
+                .attribute("routingKey", routingKey)
+                .attribute("messages", stats.getMessages())
+                .attribute("bytes", stats.getBytes())
+                .attribute("fromAgent", stats.isFromAgent());
+    }
+
+    PublishSpan phase(String phase, double millis) {
+        phases.put(phase, millis);
+        return this;
+    }
+
+    PublishSpan attribute(String attribute, Object value) {
+        if (value != null) {
+            attributes.put(attribute, String.valueOf(value));
+        }
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    public double getDurationMillis() {
+        return phases.values().stream().mapToDouble(Double::doubleValue).sum();
+    }
+
+    public Map<String, Double> getPhases() {
+        return Collections.unmodifiableMap(phases);
+    }
+
+    public Map<String, String> getAttributes() {
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [trace %s, span %s, parent %s] %.1f ms %s %s", name, traceId, spanId, parentSpanId,
+                getDurationMillis(), phases, attributes);
+    }
+}
@@ -0,0 +1,172 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.model.Action;
+import hudson.model.Run;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and sizes of the messages published by the Rabbit-MQ steps of a build, one entry per step.<br>
+ * Shown on the build page and aggregated by the {@link PublishTrendAction} of the job.
+ */
+@ExportedBean
+public class PublishStatsAction implements Action {
+
+    private final List<StepStats> steps = new ArrayList<>();
+
+    /**
+     * @param run   build publishing the message
+     * @param stats statistics of the publish
+     */
+    static void record(Run<?, ?> run, StepStats stats) {
+        // steps of a pipeline can run in parallel
+        synchronized (run) {
+            PublishStatsAction action = run.getAction(PublishStatsAction.class);
+            if (action == null) {
+                action = new PublishStatsAction();
+                action.add(stats);
+                run.addAction(action);
+            } else {
+                action.add(stats);
+            }
+        }
+    }
+
+    private synchronized void add(StepStats stats) {
+        steps.add(stats);
+    }
+
+    @Override
+    public String getIconFileName() {
+        // only a summary on the build page
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Rabbit-MQ publishing";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    @Exported
+    public synchronized List<StepStats> getSteps() {
+        return Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    @Exported
+    public synchronized int getMessages() {
+        return steps.stream().mapToInt(StepStats::getMessages).sum();
+    }
+
+    @Exported
+    public synchronized long getBytes() {
+        return steps.stream().mapToLong(StepStats::getBytes).sum();
+    }
+
+    public synchronized double getRenderMillis() {
+        return steps.stream().mapToDouble(StepStats::getRenderMillis).sum();
+    }
+
+    public synchronized double getConnectMillis() {
+        return steps.stream().mapToDouble(StepStats::getConnectMillis).sum();
+    }
+
+    public synchronized double getSendMillis() {
+        return steps.stream().mapToDouble(StepStats::getSendMillis).sum();
+    }
+
+    /**
+     * Statistics of one publish. Also returned by the agent when publishing from it.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static class StepStats implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String rabbitName;
+        private final String exchange;
+        private final boolean fromAgent;
+        private final double renderMillis;
+        private final double connectMillis;
+        private final double sendMillis;
+        private final int messages;
+        private final long bytes;
+
+        /**
+         * @param renderMillis  time to render the message
+         * @param connectMillis time to get the connection, opening it when sending is part of the send time
+         * @param sendMillis    time to send the message and its chunks
+         * @param messages      number of messages sent, the chunks when split
+         * @param bytes         size of the rendered message
+         */
+        StepStats(String rabbitName, String exchange, boolean fromAgent, double renderMillis, double connectMillis,
+                  double sendMillis, int messages, long bytes) {
+            this.rabbitName = rabbitName;
+            this.exchange = exchange;
+            this.fromAgent = fromAgent;
+            this.renderMillis = renderMillis;
+            this.connectMillis = connectMillis;
+            this.sendMillis = sendMillis;
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+
+        static double millis(long startNanos, long endNanos) {
+            return (endNanos - startNanos) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Exported
+        public String getRabbitName() {
+            return rabbitName;
+        }
+
+        @Exported
+        public String getExchange() {
+            return exchange;
+        }
+
+        @Exported
+        public boolean isFromAgent() {
+            return fromAgent;
+        }
+
+        @Exported
+        public double getRenderMillis() {
+            return renderMillis;
+        }
+
+        @Exported
+        public double getConnectMillis() {
+            return connectMillis;
+        }
+
+        @Exported
+        public double getSendMillis() {
+            return sendMillis;
+        }
+
+        @Exported
+        public int getMessages() {
+            return messages;
+        }
+
+        @Exported
+        public long getBytes() {
+            return bytes;
+        }
+
+        public String format(double millis) {
+            return String.format("%.1f", millis);
+        }
+    }
+}
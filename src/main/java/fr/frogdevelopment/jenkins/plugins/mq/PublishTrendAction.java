@@ -0,0 +1,174 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Api;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.ChartUtil;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import jenkins.model.TransientActionFactory;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Trend of the Rabbit-MQ publishing of the recent builds of a job, as a chart and through the remote API, so the job
+ * owners can see when their messages grow or their publishing slows down.
+ */
+@ExportedBean
+public class PublishTrendAction implements Action {
+
+    static final int MAX_BUILDS = 30;
+
+    private final Job<?, ?> job;
+
+    PublishTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Rabbit-MQ publishing trend";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "rabbitmq-trend";
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * @return statistics of the last {@value #MAX_BUILDS} builds which published messages, most recent first
+     */
+    @Exported(inline = true)
+    public List<BuildStats> getBuilds() {
+        List<BuildStats> builds = new ArrayList<>();
+        for (Run<?, ?> run : job.getBuilds().limit(MAX_BUILDS)) {
+            PublishStatsAction stats = run.getAction(PublishStatsAction.class);
+            if (stats != null) {
+                builds.add(new BuildStats(run, stats));
+            }
+        }
+        return builds;
+    }
+
+    public void doGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (ChartUtil.awtProblemCause != null) {
+            rsp.sendRedirect2(req.getContextPath() + "/images/headless.png");
+            return;
+        }
+
+        List<BuildStats> builds = getBuilds();
+        long timestamp = builds.isEmpty() ? 0 : builds.get(0).run.getTimeInMillis();
+
+        new Graph(timestamp, 600, 300) {
+            @Override
+            protected JFreeChart createGraph() {
+                DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel> dataSet = new DataSetBuilder<>();
+                for (BuildStats build : builds) {
+                    ChartUtil.NumberOnlyBuildLabel label = new ChartUtil.NumberOnlyBuildLabel(build.run);
+                    dataSet.add(build.stats.getRenderMillis(), "render", label);
+                    dataSet.add(build.stats.getConnectMillis(), "connect", label);
+                    dataSet.add(build.stats.getSendMillis(), "send", label);
+                }
+
+                return ChartFactory.createStackedAreaChart(null, "Build", "Milliseconds", dataSet.build(),
+                        PlotOrientation.VERTICAL, true, true, false);
+            }
+        }.doPng(req, rsp);
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static class BuildStats {
+
+        private final Run<?, ?> run;
+        private final PublishStatsAction stats;
+
+        private BuildStats(Run<?, ?> run, PublishStatsAction stats) {
+            this.run = run;
+            this.stats = stats;
+        }
+
+        @Exported
+        public int getNumber() {
+            return run.getNumber();
+        }
+
+        public String getDisplayName() {
+            return run.getDisplayName();
+        }
+
+        @Exported
+        public int getMessages() {
+            return stats.getMessages();
+        }
+
+        @Exported
+        public long getBytes() {
+            return stats.getBytes();
+        }
+
+        @Exported
+        public double getRenderMillis() {
+            return stats.getRenderMillis();
+        }
+
+        @Exported
+        public double getConnectMillis() {
+            return stats.getConnectMillis();
+        }
+
+        @Exported
+        public double getSendMillis() {
+            return stats.getSendMillis();
+        }
+
+        public String format(double millis) {
+            return String.format("%.1f", millis);
+        }
+    }
+
+    @Extension
+    public static class Factory extends TransientActionFactory<Job> {
+
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Nonnull
+        @Override
+        public Collection<? extends Action> createFor(@Nonnull Job target) {
+            Run<?, ?> lastBuild = target.getLastCompletedBuild();
+            if (lastBuild == null || lastBuild.getAction(PublishStatsAction.class) == null) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new PublishTrendAction(target));
+        }
+    }
+}
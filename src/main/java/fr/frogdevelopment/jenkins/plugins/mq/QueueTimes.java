@@ -0,0 +1,116 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Time spent by the items of the build queue in each of its states, so the queue events can be used to measure the
+ * queue wait latency and the starvation of the executors.<br>
+ * An item is tracked from its entry in the queue until it leaves it, started or cancelled.
+ */
+class QueueTimes {
+
+    enum State {
+        WAITING,
+        BLOCKED,
+        BUILDABLE;
+
+        String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final ConcurrentMap<Long, Item> items = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    QueueTimes() {
+        this(System::currentTimeMillis);
+    }
+
+    QueueTimes(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param id           id of the queue item
+     * @param inQueueSince entry time of the item in the queue
+     * @param state        state entered
+     * @return times of the item, on entering the state
+     */
+    Map<String, Object> enter(long id, long inQueueSince, State state) {
+        long now = clock.getAsLong();
+        Item item = items.computeIfAbsent(id, key -> new Item(inQueueSince));
+        synchronized (item) {
+            item.state = state;
+            item.stateSince = now;
+            return item.toMap(now);
+        }
+    }
+
+    /**
+     * @param id    id of the queue item
+     * @param state state left
+     */
+    void leave(long id, State state) {
+        Item item = items.get(id);
+        if (item != null) {
+            synchronized (item) {
+                if (item.state == state) {
+                    item.elapsed.merge(state, clock.getAsLong() - item.stateSince, Long::sum);
+                    item.state = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param id           id of the queue item
+     * @param inQueueSince entry time of the item in the queue
+     * @return times of the item, which is not tracked anymore
+     */
+    Map<String, Object> left(long id, long inQueueSince) {
+        long now = clock.getAsLong();
+        Item item = items.remove(id);
+        if (item == null) {
+            // entered the queue before a restart
+            item = new Item(inQueueSince);
+        }
+        synchronized (item) {
+            return item.toMap(now);
+        }
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    private static class Item {
+
+        private final long inQueueSince;
+        private final Map<State, Long> elapsed = new EnumMap<>(State.class);
+        private State state;
+        private long stateSince;
+
+        private Item(long inQueueSince) {
+            this.inQueueSince = inQueueSince;
+        }
+
+        private Map<String, Object> toMap(long now) {
+            Map<String, Object> times = new LinkedHashMap<>();
+            times.put("inQueueSince", inQueueSince);
+            times.put("timeInQueueMillis", now - inQueueSince);
+            for (State s : State.values()) {
+                long millis = elapsed.getOrDefault(s, 0L);
+                if (s == state) {
+                    millis += now - stateSince;
+                }
+                times.put(s.getName() + "Millis", millis);
+            }
+            return times;
+        }
+    }
+}
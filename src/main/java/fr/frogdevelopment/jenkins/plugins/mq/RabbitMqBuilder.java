@@ -1,22 +1,32 @@
 package fr.frogdevelopment.jenkins.plugins.mq;
 
-import static org.springframework.amqp.core.MessageBuilder.withBody;
-
+import com.cloudbees.plugins.credentials.common.StandardUsernameListBoxModel;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import fr.frogdevelopment.jenkins.plugins.mq.ConnectionPool.PooledConnection;
+import fr.frogdevelopment.jenkins.plugins.mq.EventDispatcher.EventType;
+import fr.frogdevelopment.jenkins.plugins.mq.EventDispatcher.Lane;
+import fr.frogdevelopment.jenkins.plugins.mq.PublishStatsAction.StepStats;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
+import hudson.init.Terminator;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Cause;
 import hudson.model.Descriptor;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.security.ACL;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.FormValidation;
@@ -24,19 +34,25 @@ import hudson.util.ListBoxModel;
 import hudson.util.Secret;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import javax.annotation.Nonnull;
 import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildStep;
+import jenkins.util.SystemProperties;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.lang.math.NumberUtils;
@@ -48,15 +64,13 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.core.MessageDeliveryMode;
 
 // cf example https://github.com/jenkinsci/hello-world-plugin
 @SuppressFBWarnings({"WeakerAccess", "RCN_REDUNDANT_NULLCHECK_WOULD_HAVE_BEEN_A_NPE"})
 public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMqBuilder.class);
-    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
 
     private final String rabbitName;
     private final String exchange;
@@ -64,6 +78,23 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
     private final String data;
     private boolean toJson;
     private boolean conversion = true;
+    private String idempotencyKey;
+    private int chunkSize;
+    private String deliveryMode;
+    private String priority;
+    private String expiration;
+    private String contentType;
+    private String headers;
+    private boolean mandatory;
+    private String unroutableResult = Result.UNSTABLE.toString();
+    private boolean publishFromAgent;
+    private Object payload;
+    private String topology;
+
+    private transient volatile MessagePropertiesTemplate propertiesTemplate;
+    private transient volatile Topology parsedTopology;
+    private transient volatile Set<String> referencedVariables;
+    private transient volatile JsonTemplate jsonTemplate;
 
     @Deprecated
     public RabbitMqBuilder(String rabbitName, String exchange, String routingKey, String data, boolean toJson) {
@@ -120,57 +151,307 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
         this.conversion = conversion;
     }
 
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    @DataBoundSetter
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+        this.referencedVariables = null;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @DataBoundSetter
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public String getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    @DataBoundSetter
+    public void setDeliveryMode(String deliveryMode) {
+        this.deliveryMode = deliveryMode;
+        this.propertiesTemplate = null;
+    }
+
+    public String getPriority() {
+        return priority;
+    }
+
+    @DataBoundSetter
+    public void setPriority(String priority) {
+        this.priority = priority;
+        this.propertiesTemplate = null;
+    }
+
+    public String getExpiration() {
+        return expiration;
+    }
+
+    @DataBoundSetter
+    public void setExpiration(String expiration) {
+        this.expiration = expiration;
+        this.propertiesTemplate = null;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    @DataBoundSetter
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+        this.propertiesTemplate = null;
+    }
+
+    public String getHeaders() {
+        return headers;
+    }
+
+    @DataBoundSetter
+    public void setHeaders(String headers) {
+        this.headers = headers;
+        this.propertiesTemplate = null;
+        this.referencedVariables = null;
+    }
+
+    public boolean isMandatory() {
+        return mandatory;
+    }
+
+    @DataBoundSetter
+    public void setMandatory(boolean mandatory) {
+        this.mandatory = mandatory;
+    }
+
+    public String getUnroutableResult() {
+        return unroutableResult;
+    }
+
+    @DataBoundSetter
+    public void setUnroutableResult(String unroutableResult) {
+        this.unroutableResult = unroutableResult;
+    }
+
+    public boolean isPublishFromAgent() {
+        return publishFromAgent;
+    }
+
+    @DataBoundSetter
+    public void setPublishFromAgent(boolean publishFromAgent) {
+        this.publishFromAgent = publishFromAgent;
+    }
+
+    public Object getPayload() {
+        return payload;
+    }
+
+    /**
+     * @param payload structured message (eg: a map or a list from a pipeline), sent as JSON instead of the data
+     */
+    @DataBoundSetter
+    public void setPayload(Object payload) {
+        this.payload = payload;
+        this.referencedVariables = null;
+    }
+
+    public String getTopology() {
+        return topology;
+    }
+
+    @DataBoundSetter
+    public void setTopology(String topology) {
+        this.topology = topology;
+        this.parsedTopology = null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the topology is not in the expected format
+     */
+    Topology getTopologyDeclarations() {
+        Topology declarations = parsedTopology;
+        if (declarations == null) {
+            declarations = Topology.parse(topology);
+            parsedTopology = declarations;
+        }
+        return declarations;
+    }
+
+    MessagePropertiesTemplate getPropertiesTemplate() {
+        MessagePropertiesTemplate template = propertiesTemplate;
+        if (template == null) {
+            template = MessagePropertiesTemplate.compile(deliveryMode, priority, expiration, contentType, headers);
+            propertiesTemplate = template;
+        }
+        return template;
+    }
+
+    JsonTemplate getJsonTemplate() {
+        JsonTemplate template = jsonTemplate;
+        if (template == null) {
+            template = JsonTemplate.compile(data);
+            jsonTemplate = template;
+        }
+        return template;
+    }
+
+    /**
+     * @return context given to the build by its {@value TraceContext#VARIABLE} parameter, or by the environment when
+     * the step references it
+     */
+    private static String getTraceparent(Run<?, ?> run, EnvVars env) {
+        if (env.containsKey(TraceContext.VARIABLE)) {
+            return env.get(TraceContext.VARIABLE);
+        }
+
+        // a parameter is read even if not referenced by the step, without computing the environment
+        ParametersAction parameters = run.getAction(ParametersAction.class);
+        ParameterValue traceparent = parameters != null ? parameters.getParameter(TraceContext.VARIABLE) : null;
+        return traceparent != null && traceparent.getValue() != null ? String.valueOf(traceparent.getValue()) : null;
+    }
+
+    /**
+     * @return variables referenced by the data (not used with a payload), the idempotency key and the headers
+     */
+    private Set<String> getReferencedVariables() {
+        Set<String> variables = referencedVariables;
+        if (variables == null) {
+            variables = Collections.unmodifiableSet(
+                    Utils.getReferencedVariables(payload == null ? data : null, idempotencyKey, headers));
+            referencedVariables = variables;
+        }
+        return variables;
+    }
+
     @Override
     public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener) {
         listener.getLogger().println("Retrieving parameters");
         LOGGER.info("Retrieving parameters :");
 
-        //noinspection unchecked
-        Map<String, String> buildVariables = build.getBuildVariables();
-        LOGGER.debug("BuildVariables : {}", buildVariables);
+        // only resolve the variables used by the step, the whole environment can be costly to compute
+        Set<String> variables = getReferencedVariables();
+        LOGGER.debug("Referenced variables : {}", variables);
 
-        Map<String, String> buildParameters = new HashMap<>(buildVariables);
+        Map<String, String> buildParameters = new HashMap<>();
+        EnvVars env = new EnvVars();
+
+        if (!variables.isEmpty()) {
+            //noinspection unchecked
+            Map<String, String> buildVariables = build.getBuildVariables();
+            for (String variable : variables) {
+                if (buildVariables.containsKey(variable)) {
+                    buildParameters.put(variable, buildVariables.get(variable));
+                }
+            }
+
+            if (variables.contains("BUILD_USER_ID") || variables.contains("BUILD_USER_NAME")) {
+                Cause.UserIdCause userIdCause = (Cause.UserIdCause) build.getCause(Cause.UserIdCause.class);
+                if (userIdCause != null) {
+                    buildParameters.put("BUILD_USER_ID", userIdCause.getUserId());
+                    buildParameters.put("BUILD_USER_NAME", userIdCause.getUserName());
+                }
+            }
+
+            LOGGER.debug("Parameters retrieved : {}", buildParameters);
+
+            Set<String> missing = new HashSet<>(variables);
+            missing.removeAll(buildParameters.keySet());
 
-        Cause.UserIdCause userIdCause = (Cause.UserIdCause) build.getCause(Cause.UserIdCause.class);
-        if (userIdCause != null) {
-            buildParameters.put("BUILD_USER_ID", userIdCause.getUserId());
-            buildParameters.put("BUILD_USER_NAME", userIdCause.getUserName());
+            // job name, build number... do not need the environment contributors
+            copyVariables(build.getCharacteristicEnvVars(), missing, env);
+
+            if (!missing.isEmpty()) {
+                try {
+                    copyVariables(build.getEnvironment(listener), missing, env);
+                } catch (Exception e) {
+                    // nothing to do ?
+                }
+            }
+
+            LOGGER.debug("Environmental variables : {}", env);
         }
 
-        LOGGER.debug("Parameters retrieved : {}", buildParameters);
+        return perform(build, build.getWorkspace(), buildParameters, env, listener);
+    }
 
-        EnvVars env = new EnvVars();
-        try {
-            env = build.getEnvironment(listener);
-        } catch (Exception e) {
-            // nothing to do ?
+    private String buildMessage(Map<String, String> buildParameters, EnvVars env, PrintStream console) {
+        console.println("Building message");
+
+        if (payload != null) {
+            // already structured : no template, nothing to expand
+            String message = JsonTemplate.write(payload);
+            LOGGER.info("Sending payload as JSON:\n{}", message);
+            console.println("Sending payload as JSON:\n" + message);
+            return message;
         }
 
-        LOGGER.debug("Environmental variables : {}", env);
+        String message = MessageSender.render(toJson ? getJsonTemplate() : null, data, buildParameters, env);
+        if (toJson) {
+            LOGGER.info("Sending message as JSON:\n{}", message);
+            console.println("Sending message as JSON:\n" + message);
+        } else {
+            LOGGER.info("Sending raw message:\n{}", message);
+            console.println("Sending raw message:\n" + message);
+        }
+
+        return message;
+    }
 
-        return perform(buildParameters, env, listener);
+    private static void copyVariables(EnvVars source, Set<String> variables, EnvVars target) {
+        Iterator<String> iterator = variables.iterator();
+        while (iterator.hasNext()) {
+            String variable = iterator.next();
+            String value = source.get(variable);
+            if (value != null) {
+                target.put(variable, value);
+                iterator.remove();
+            }
+        }
     }
 
     @Override
     public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher,
-                        @Nonnull TaskListener listener) {
+                        @Nonnull TaskListener listener) throws InterruptedException, IOException {
         listener.getLogger().println("Retrieving data");
         LOGGER.info("Retrieving data :");
 
-        Map<String, String> buildParameters = new HashMap<>();
-        // FIXME https://jenkins.io/doc/developer/plugin-development/pipeline-integration/
+        Set<String> variables = getReferencedVariables();
+        LOGGER.debug("Referenced variables : {}", variables);
 
+        Map<String, String> buildParameters = new HashMap<>();
         EnvVars env = new EnvVars();
 
-        LOGGER.debug("Data retrieved : {}", buildParameters);
+        if (!variables.isEmpty()) {
+            if (variables.contains("BUILD_USER_ID") || variables.contains("BUILD_USER_NAME")) {
+                Cause.UserIdCause userIdCause = run.getCause(Cause.UserIdCause.class);
+                if (userIdCause != null) {
+                    buildParameters.put("BUILD_USER_ID", userIdCause.getUserId());
+                    buildParameters.put("BUILD_USER_NAME", userIdCause.getUserName());
+                }
+            }
 
-        perform(buildParameters, env, listener);
+            // the parameters of a pipeline are part of the environment of its run
+            Set<String> missing = new HashSet<>(variables);
+            missing.removeAll(buildParameters.keySet());
+            copyVariables(run.getEnvironment(listener), missing, env);
+        }
+
+        LOGGER.debug("Data retrieved : {}", env);
+
+        perform(run, workspace, buildParameters, env, listener);
     }
 
-    private boolean perform(@Nonnull Map<String, String> buildParameters, @Nonnull EnvVars env,
-                            @Nonnull TaskListener listener) {
+    private boolean perform(@Nonnull Run<?, ?> run, FilePath workspace, @Nonnull Map<String, String> buildParameters,
+                            @Nonnull EnvVars env, @Nonnull TaskListener listener) {
         PrintStream console = listener.getLogger();
 
+        String deduplicationKey = null;
         try {
             console.println("Initialisation Rabbit-MQ");
             // INIT RABBIT-MQ
@@ -180,42 +461,106 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
                 throw new IllegalArgumentException("Unknown rabbit config : " + rabbitName);
             }
 
-            console.println("Building message");
+            String messageId = null;
+            if (StringUtils.isNotBlank(idempotencyKey)) {
+                messageId = Utils.getRawMessage(buildParameters, env.expand(idempotencyKey));
+                deduplicationKey = rabbitName + '|' + exchange + '|' + messageId;
 
-            String expandedData = env.expand(data);
-            String message;
-            if (toJson) {
-                message = Utils.getJsonMessage(buildParameters, expandedData);
-                LOGGER.info("Sending message as JSON:\n{}", message);
-                console.println("Sending message as JSON:\n" + message);
-            } else {
-                message = Utils.getRawMessage(buildParameters, expandedData);
-                LOGGER.info("Sending raw message:\n{}", message);
-                console.println("Sending raw message:\n" + message);
+                if (!getDescriptor().getDeduplicationCache().tryAcquire(deduplicationKey)) {
+                    LOGGER.info("Duplicate message skipped, idempotency key : {}", messageId);
+                    console.println("Message already sent, skipping it (idempotency key : " + messageId + ")");
+                    return true;
+                }
             }
 
+            TraceContext trace = TraceContext.forRun(run, getTraceparent(run, env));
+            long startMillis = System.currentTimeMillis();
+
+            if (publishFromAgent && !mandatory && workspace != null && workspace.isRemote()) {
+                // returned messages can only be correlated to the build on the controller
+                console.println("Publishing from the agent");
+                StepStats stats = workspace.act(new AgentPublisher(this, rabbitConfig, buildParameters, env, messageId,
+                        trace.toTraceparent(), listener));
+                PublishStatsAction.record(run, stats);
+                SpanExporter.exportAll(PublishSpan.forStep(trace, startMillis, stats, routingKey));
+                console.println("Message sent");
+                return true;
+            }
+
+            long start = System.nanoTime();
+            String message = buildMessage(buildParameters, env, console);
+            long rendered = System.nanoTime();
+
             console.println("Sending message");
 
-            CachingConnectionFactory factory = RabbitMqFactory.getCachingConnectionFactory(rabbitConfig);
-            RabbitTemplate rabbitTemplate = RabbitMqFactory.getRabbitTemplate(factory);
-            if (conversion) {
-                rabbitTemplate.convertAndSend(exchange, routingKey, message);
-            } else {
-                rabbitTemplate.send(exchange, routingKey, withBody(message.getBytes(DEFAULT_CHARSET)).build());
-            }
-            factory.destroy();
+            // the build thread only waits for the network I/O
+            String stepMessageId = messageId;
+            StepStats stats = PublishExecutor.call(() -> send(run, listener, rabbitConfig, buildParameters, env,
+                    stepMessageId, trace, message, start, rendered));
+            PublishStatsAction.record(run, stats);
+            SpanExporter.exportAll(PublishSpan.forStep(trace, startMillis, stats, routingKey));
 
-            console.println("Connection destroyed");
+            console.println("Message sent");
         } catch (Exception e) {
             LOGGER.error("Error while sending to Rabbit-MQ", e);
             console.println("Error while sending to Rabbit-MQ : " + ExceptionUtils.getMessage(e));
 
+            if (deduplicationKey != null) {
+                // message not sent, a retry must not be considered as a duplicate
+                getDescriptor().getDeduplicationCache().release(deduplicationKey);
+            }
+
             return false;
         }
 
         return true;
     }
 
+    /**
+     * Send the rendered message of the step, on the publish executor.
+     *
+     * @return timings of the step
+     */
+    private StepStats send(Run<?, ?> run, TaskListener listener, RabbitConfig rabbitConfig,
+                           Map<String, String> buildParameters, EnvVars env, String messageId, TraceContext trace,
+                           String message, long start, long rendered) throws GeneralSecurityException {
+        PrintStream console = listener.getLogger();
+
+        PooledConnection connection = getDescriptor().getConnections().acquire(rabbitConfig);
+        long connected;
+        int messages;
+        try {
+            connection.connect();
+            connected = System.nanoTime();
+
+            int declared = connection.declare(rabbitConfig.getTopologyDeclarations())
+                    + connection.declare(getTopologyDeclarations());
+            if (declared > 0) {
+                console.println("Declared " + declared + " exchanges, queues or bindings");
+            }
+
+            String publishId = null;
+            if (mandatory) {
+                // returned asynchronously by the broker if it can not be routed
+                Result result = Result.fromString(StringUtils.defaultIfBlank(unroutableResult, "UNSTABLE"));
+                publishId = getDescriptor().getConnections().getReturnedMessages().register(run, listener, result);
+            }
+
+            PublishProperties properties = MessageSender.publishProperties(
+                    getPropertiesTemplate(), buildParameters, env, messageId, publishId, trace.toTraceparent());
+
+            messages = connection.send(mandatory, exchange, routingKey, message, conversion, chunkSize,
+                    properties);
+        } finally {
+            connection.release();
+        }
+        long sent = System.nanoTime();
+
+        return new StepStats(rabbitName, exchange, false, StepStats.millis(start, rendered),
+                StepStats.millis(rendered, connected), StepStats.millis(connected, sent), messages,
+                message.getBytes(StandardCharsets.UTF_8).length);
+    }
+
     @Override
     public RabbitMqDescriptor getDescriptor() {
         return (RabbitMqDescriptor) super.getDescriptor();
@@ -225,10 +570,32 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
     @Symbol("rabbitMQPublisher")
     public static class RabbitMqDescriptor extends BuildStepDescriptor<Builder> {
 
+        private static final int DEDUPLICATION_CACHE_SIZE = SystemProperties.getInteger(
+                RabbitMqBuilder.class.getName() + ".deduplicationCacheSize", 10_000);
+        private static final int DEDUPLICATION_WINDOW = SystemProperties.getInteger(
+                RabbitMqBuilder.class.getName() + ".deduplicationWindow", 600);
+
         private Configs configs;
+        private boolean useNio;
+        private int ioThreads = ConnectionThreads.DEFAULT_IO_THREADS;
+        private boolean automaticRecovery = true;
+        private int recoveryInterval = ConnectionRecovery.DEFAULT_INTERVAL;
+        private int maxRecoveryInterval = ConnectionRecovery.DEFAULT_MAX_INTERVAL;
+
+        private final transient DeduplicationCache deduplicationCache = new DeduplicationCache(
+                DEDUPLICATION_CACHE_SIZE, DEDUPLICATION_WINDOW, TimeUnit.SECONDS);
+
+        private final transient ConnectionPool connections = new ConnectionPool();
+
+        private final transient EventDispatcher eventDispatcher = new EventDispatcher(EventDispatcher.CRITICAL_WEIGHT,
+                Backpressure.fromSystemProperties(),
+                () -> configs != null ? configs.getRabbitConfigs() : Collections.emptyList(),
+                event -> event.send(connections));
 
         public RabbitMqDescriptor() {
             load();
+            ConnectionThreads.configure(useNio, getIoThreads());
+            ConnectionRecovery.configure(automaticRecovery, recoveryInterval, maxRecoveryInterval);
         }
 
         @Override
@@ -244,7 +611,24 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
 
         @Override
         public boolean configure(StaplerRequest req, JSONObject json) {
+            String connectionSettings = getConnectionSettings();
+
             this.configs = Configs.fromJSON(json);
+            this.useNio = json.optBoolean("useNio");
+            this.ioThreads = json.optInt("ioThreads", ConnectionThreads.DEFAULT_IO_THREADS);
+            this.automaticRecovery = json.optBoolean("automaticRecovery", true);
+            this.recoveryInterval = json.optInt("recoveryInterval", ConnectionRecovery.DEFAULT_INTERVAL);
+            this.maxRecoveryInterval = json.optInt("maxRecoveryInterval", ConnectionRecovery.DEFAULT_MAX_INTERVAL);
+            ConnectionThreads.configure(useNio, getIoThreads());
+            ConnectionRecovery.configure(automaticRecovery, recoveryInterval, maxRecoveryInterval);
+
+            if (connectionSettings.equals(getConnectionSettings())) {
+                // only re-open the connections of the changed configurations
+                this.connections.retain(configs != null ? configs.getRabbitConfigs() : Collections.emptyList());
+            } else {
+                // settings of all the connections
+                this.connections.clear();
+            }
 
             save();
 
@@ -259,7 +643,85 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
             this.configs = configs;
         }
 
-        private RabbitConfig getRabbitConfig(String configName) {
+        private String getConnectionSettings() {
+            return String.join("|", String.valueOf(useNio), String.valueOf(getIoThreads()),
+                    String.valueOf(automaticRecovery), String.valueOf(recoveryInterval),
+                    String.valueOf(maxRecoveryInterval));
+        }
+
+        public boolean isUseNio() {
+            return useNio;
+        }
+
+        public int getIoThreads() {
+            return ioThreads > 0 ? ioThreads : ConnectionThreads.DEFAULT_IO_THREADS;
+        }
+
+        public boolean isAutomaticRecovery() {
+            return automaticRecovery;
+        }
+
+        public int getRecoveryInterval() {
+            return recoveryInterval;
+        }
+
+        public int getMaxRecoveryInterval() {
+            return maxRecoveryInterval;
+        }
+
+        public FormValidation doCheckIoThreads(@QueryParameter String value) {
+            if (NumberUtils.isDigits(value) && Integer.parseInt(value) > 0) {
+                return FormValidation.ok();
+            } else {
+                return FormValidation.error("Not a positive number");
+            }
+        }
+
+        DeduplicationCache getDeduplicationCache() {
+            return deduplicationCache;
+        }
+
+        ConnectionPool getConnections() {
+            return connections;
+        }
+
+        EventDispatcher getEventDispatcher() {
+            return eventDispatcher;
+        }
+
+        /**
+         * @return number of messages returned by the brokers as unroutable, per exchange
+         */
+        public Map<String, Long> getUnroutableCounts() {
+            return connections.getReturnedMessages().getUnroutableCounts();
+        }
+
+        /**
+         * @return recovery counters of the connections, per Rabbit-MQ configuration
+         */
+        public Map<String, ConnectionRecovery.Stats> getRecoveryStats() {
+            return connections.getRecoveryStats();
+        }
+
+        /**
+         * @return number of background events dropped because Rabbit-MQ did not keep up, per event type
+         */
+        public Map<String, Long> getDroppedEvents() {
+            return eventDispatcher.getDroppedCounts();
+        }
+
+        @Terminator
+        public static void closeConnections() {
+            RabbitMqDescriptor descriptor = Jenkins.get().getDescriptorByType(RabbitMqDescriptor.class);
+            if (descriptor != null) {
+                descriptor.eventDispatcher.stop();
+                descriptor.connections.clear();
+            }
+            PublishExecutor.shutdown();
+            ConnectionThreads.shutdown();
+        }
+
+        RabbitConfig getRabbitConfig(String configName) {
             return configs.getRabbitConfigs()
                     .stream()
                     .filter(rc -> rc.getName().equals(configName))
@@ -277,23 +739,76 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
             if (StringUtils.isBlank(parameters)) {
                 return FormValidation.error("Parameters required");
             } else {
-                String[] lines = parameters.split("\\r?\\n");
-                for (String line : lines) {
-                    String[] splitLine = line.split("=");
-                    if (splitLine.length == 2) {
-                        if (StringUtils.isBlank(splitLine[0])) {
-                            return FormValidation.error("Empty routingKey for : [%s]", line);
-                        }
-                    } else {
-                        return FormValidation
-                                .error("Incorrect data format for value [%s]. Expected format is routingKey=value",
-                                        line);
-                    }
+                try {
+                    JsonTemplate.compile(parameters);
+                } catch (IllegalStateException e) {
+                    return FormValidation.error(e.getMessage());
                 }
 
                 return FormValidation.ok();
             }
         }
+
+        public ListBoxModel doFillDeliveryModeItems() {
+            ListBoxModel options = new ListBoxModel();
+            options.add("Persistent", MessageDeliveryMode.PERSISTENT.name());
+            options.add("Transient", MessageDeliveryMode.NON_PERSISTENT.name());
+            return options;
+        }
+
+        public FormValidation doCheckPriority(@QueryParameter String value) {
+            if (StringUtils.isBlank(value)) {
+                return FormValidation.ok();
+            }
+
+            int priority = NumberUtils.toInt(value, -1);
+            if (priority >= 0 && priority <= 255) {
+                return FormValidation.ok();
+            } else {
+                return FormValidation.error("Priority must be between 0 and 255");
+            }
+        }
+
+        public FormValidation doCheckExpiration(@QueryParameter String value) {
+            if (StringUtils.isBlank(value) || NumberUtils.toLong(value, -1) >= 0) {
+                return FormValidation.ok();
+            } else {
+                return FormValidation.error("Not a positive number");
+            }
+        }
+
+        public FormValidation doCheckTopology(@QueryParameter String value) {
+            try {
+                Topology.parse(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
+        public FormValidation doCheckHeaders(@QueryParameter String value) {
+            try {
+                MessagePropertiesTemplate.parseHeaders(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
+        public ListBoxModel doFillUnroutableResultItems() {
+            ListBoxModel options = new ListBoxModel();
+            options.add("Unstable", Result.UNSTABLE.toString());
+            options.add("Failure", Result.FAILURE.toString());
+            return options;
+        }
+
+        public FormValidation doCheckChunkSize(@QueryParameter String value) {
+            if (StringUtils.isBlank(value) || NumberUtils.toInt(value, -1) >= 0) {
+                return FormValidation.ok();
+            } else {
+                return FormValidation.error("Not a positive number");
+            }
+        }
     }
 
     public static final class Configs extends AbstractDescribableImpl<Configs> {
@@ -353,6 +868,25 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
         private String username;
         private String password;
         private String virtualHost;
+        private String credentialsId;
+        private String trustStore;
+        private String trustStorePassword;
+        private String keyStore;
+        private String keyStorePassword;
+        private String tlsProtocols;
+        private String cipherSuites;
+        private String eventsExchange;
+        private String eventLanes;
+        private String topology;
+        private boolean nativeClient;
+        private int connectionCount = 1;
+        private String connectionSelection;
+
+        private transient volatile Map<EventType, Lane> parsedEventLanes;
+        private transient volatile Topology parsedTopology;
+        private transient volatile CachedCredentials credentials;
+        private transient volatile TlsContext tlsContext;
+        private transient volatile String connectionKey;
 
         @DataBoundConstructor
         public RabbitConfig(String name, String host, int port, String username, String password, boolean isSecure,
@@ -391,23 +925,245 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
         }
 
         public static String getDecodedPassword(String password) {
-            Secret decrypt = Secret.decrypt(password);
+            return CachedCredentials.decrypt(password);
+        }
 
-            if (decrypt == null) {
-                return password;
-            }
+        public String getDecodedPassword() {
+            return getCredentials().getPassword();
+        }
 
-            return decrypt.getPlainText();
+        public String getCredentialsId() {
+            return credentialsId;
         }
 
-        public String getDecodedPassword() {
-            return getDecodedPassword(password);
+        @DataBoundSetter
+        public void setCredentialsId(String credentialsId) {
+            this.credentialsId = Util.fixEmptyAndTrim(credentialsId);
+            this.credentials = null;
+            this.connectionKey = null;
+        }
+
+        /**
+         * @return username and decrypted password to connect with, from the credentials if defined
+         * @throws IllegalStateException if the credentials do not exist
+         */
+        CachedCredentials getCredentials() {
+            CachedCredentials cached = credentials;
+            if (cached == null || !cached.isValid()) {
+                cached = CachedCredentials.resolve(credentialsId, username, password);
+                credentials = cached;
+            }
+            return cached;
         }
 
         public boolean getIsSecure() {
             return isSecure;
         }
 
+        public String getTrustStore() {
+            return trustStore;
+        }
+
+        @DataBoundSetter
+        public void setTrustStore(String trustStore) {
+            this.trustStore = Util.fixEmptyAndTrim(trustStore);
+            this.tlsContext = null;
+            this.connectionKey = null;
+        }
+
+        public String getTrustStorePassword() {
+            return trustStorePassword;
+        }
+
+        @DataBoundSetter
+        public void setTrustStorePassword(String trustStorePassword) {
+            this.trustStorePassword = Util.fixEmpty(trustStorePassword);
+            this.tlsContext = null;
+            this.connectionKey = null;
+        }
+
+        public String getKeyStore() {
+            return keyStore;
+        }
+
+        @DataBoundSetter
+        public void setKeyStore(String keyStore) {
+            this.keyStore = Util.fixEmptyAndTrim(keyStore);
+            this.tlsContext = null;
+            this.connectionKey = null;
+        }
+
+        public String getKeyStorePassword() {
+            return keyStorePassword;
+        }
+
+        @DataBoundSetter
+        public void setKeyStorePassword(String keyStorePassword) {
+            this.keyStorePassword = Util.fixEmpty(keyStorePassword);
+            this.tlsContext = null;
+            this.connectionKey = null;
+        }
+
+        public String getTlsProtocols() {
+            return tlsProtocols;
+        }
+
+        @DataBoundSetter
+        public void setTlsProtocols(String tlsProtocols) {
+            this.tlsProtocols = Util.fixEmptyAndTrim(tlsProtocols);
+            this.tlsContext = null;
+            this.connectionKey = null;
+        }
+
+        public String getCipherSuites() {
+            return cipherSuites;
+        }
+
+        @DataBoundSetter
+        public void setCipherSuites(String cipherSuites) {
+            this.cipherSuites = Util.fixEmptyAndTrim(cipherSuites);
+            this.tlsContext = null;
+            this.connectionKey = null;
+        }
+
+        /**
+         * @return TLS context shared by the connections of this configuration, null if not secure
+         * @throws GeneralSecurityException if a store can not be loaded
+         */
+        TlsContext getTlsContext() throws GeneralSecurityException {
+            if (!isSecure) {
+                return null;
+            }
+
+            TlsContext context = tlsContext;
+            if (context == null) {
+                context = TlsContext.of(trustStore, getDecodedPassword(trustStorePassword), keyStore,
+                        getDecodedPassword(keyStorePassword), tlsProtocols, cipherSuites);
+                tlsContext = context;
+            }
+            return context;
+        }
+
+        public String getEventsExchange() {
+            return eventsExchange;
+        }
+
+        @DataBoundSetter
+        public void setEventsExchange(String eventsExchange) {
+            this.eventsExchange = eventsExchange;
+        }
+
+        public String getEventLanes() {
+            return eventLanes;
+        }
+
+        @DataBoundSetter
+        public void setEventLanes(String eventLanes) {
+            this.eventLanes = eventLanes;
+            this.parsedEventLanes = null;
+        }
+
+        /**
+         * @param type type of background event
+         * @return lane of the events of this type sent to this configuration
+         */
+        Lane getEventLane(EventType type) {
+            Map<EventType, Lane> lanes = parsedEventLanes;
+            if (lanes == null) {
+                try {
+                    lanes = EventDispatcher.parseLanes(eventLanes);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("Incorrect event lanes for {}, using the default ones", name, e);
+                    lanes = Collections.emptyMap();
+                }
+                parsedEventLanes = lanes;
+            }
+            return lanes.getOrDefault(type, type.getDefaultLane());
+        }
+
+        public String getTopology() {
+            return topology;
+        }
+
+        @DataBoundSetter
+        public void setTopology(String topology) {
+            this.topology = topology;
+            this.parsedTopology = null;
+        }
+
+        public boolean getNativeClient() {
+            return nativeClient;
+        }
+
+        @DataBoundSetter
+        public void setNativeClient(boolean nativeClient) {
+            this.nativeClient = nativeClient;
+            this.connectionKey = null;
+        }
+
+        /**
+         * @return number of connections to spread the publishes over, at least 1
+         */
+        public int getConnectionCount() {
+            // 0 when loaded from a configuration saved before
+            return Math.max(1, connectionCount);
+        }
+
+        @DataBoundSetter
+        public void setConnectionCount(int connectionCount) {
+            this.connectionCount = connectionCount;
+            this.connectionKey = null;
+        }
+
+        public String getConnectionSelection() {
+            return connectionSelection;
+        }
+
+        @DataBoundSetter
+        public void setConnectionSelection(String connectionSelection) {
+            this.connectionSelection = connectionSelection;
+        }
+
+        ConnectionPool.Selection getSelection() {
+            return ConnectionPool.Selection.LEAST_LOADED.name().equals(connectionSelection)
+                    ? ConnectionPool.Selection.LEAST_LOADED
+                    : ConnectionPool.Selection.ROUND_ROBIN;
+        }
+
+        /**
+         * @return exchanges, queues and bindings to declare before publishing to this configuration
+         * @throws IllegalArgumentException if the topology is not in the expected format
+         */
+        Topology getTopologyDeclarations() {
+            Topology declarations = parsedTopology;
+            if (declarations == null) {
+                declarations = Topology.parse(topology);
+                parsedTopology = declarations;
+            }
+            return declarations;
+        }
+
+        /**
+         * @return key identifying the connection to open for this configuration
+         */
+        String getConnectionKey() {
+            String key = connectionKey;
+            if (key == null) {
+                // without the password : a connection is re-opened only if the decrypted password changes
+                key = String.join("|", name, host, String.valueOf(port),
+                        credentialsId != null ? "credentials:" + credentialsId : username, String.valueOf(isSecure),
+                        virtualHost, trustStore, digest(trustStorePassword), keyStore, digest(keyStorePassword),
+                        tlsProtocols, cipherSuites, String.valueOf(nativeClient), String.valueOf(getConnectionCount()));
+                connectionKey = key;
+            }
+            return key;
+        }
+
+        private static String digest(String password) {
+            // the encrypted value changes on each save, compare the decrypted one without keeping it
+            return password != null ? DigestUtils.sha256Hex(getDecodedPassword(password)) : null;
+        }
+
         static RabbitConfig fromJSON(JSONObject jsonObject) {
             String name = jsonObject.getString("name");
             String host = jsonObject.getString("host");
@@ -419,7 +1175,26 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
 
             Secret secret = Secret.fromString(password);
 
-            return new RabbitConfig(name, host, port, username, secret.getEncryptedValue(), isSecure, virtualHost);
+            RabbitConfig rabbitConfig = new RabbitConfig(name, host, port, username, secret.getEncryptedValue(), isSecure,
+                    virtualHost);
+            rabbitConfig.setCredentialsId(jsonObject.optString("credentialsId"));
+            rabbitConfig.setTrustStore(jsonObject.optString("trustStore"));
+            rabbitConfig.setTrustStorePassword(encrypt(jsonObject.optString("trustStorePassword")));
+            rabbitConfig.setKeyStore(jsonObject.optString("keyStore"));
+            rabbitConfig.setKeyStorePassword(encrypt(jsonObject.optString("keyStorePassword")));
+            rabbitConfig.setTlsProtocols(jsonObject.optString("tlsProtocols"));
+            rabbitConfig.setCipherSuites(jsonObject.optString("cipherSuites"));
+            rabbitConfig.setEventsExchange(jsonObject.optString("eventsExchange"));
+            rabbitConfig.setEventLanes(jsonObject.optString("eventLanes"));
+            rabbitConfig.setTopology(jsonObject.optString("topology"));
+            rabbitConfig.setNativeClient(jsonObject.optBoolean("nativeClient"));
+            rabbitConfig.setConnectionCount(jsonObject.optInt("connectionCount", 1));
+            rabbitConfig.setConnectionSelection(jsonObject.optString("connectionSelection"));
+            return rabbitConfig;
+        }
+
+        private static String encrypt(String password) {
+            return StringUtils.isEmpty(password) ? null : Secret.fromString(password).getEncryptedValue();
         }
 
         @Override
@@ -438,23 +1213,79 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
                 }
             }
 
+            public FormValidation doCheckTopology(@QueryParameter String value) {
+                try {
+                    Topology.parse(value);
+                    return FormValidation.ok();
+                } catch (IllegalArgumentException e) {
+                    return FormValidation.error(e.getMessage());
+                }
+            }
+
+            public FormValidation doCheckConnectionCount(@QueryParameter String value) {
+                if (NumberUtils.isDigits(value) && Integer.parseInt(value) > 0) {
+                    return FormValidation.ok();
+                } else {
+                    return FormValidation.error("Not a positive number");
+                }
+            }
+
+            public ListBoxModel doFillConnectionSelectionItems() {
+                ListBoxModel options = new ListBoxModel();
+                options.add("Round-robin", ConnectionPool.Selection.ROUND_ROBIN.name());
+                options.add("Least loaded", ConnectionPool.Selection.LEAST_LOADED.name());
+                return options;
+            }
+
+            public FormValidation doCheckEventLanes(@QueryParameter String value) {
+                try {
+                    EventDispatcher.parseLanes(value);
+                    return FormValidation.ok();
+                } catch (IllegalArgumentException e) {
+                    return FormValidation.error(e.getMessage());
+                }
+            }
+
+            public ListBoxModel doFillCredentialsIdItems(@QueryParameter String credentialsId) {
+                if (!Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
+                    return new StandardUsernameListBoxModel().includeCurrentValue(credentialsId);
+                }
+
+                return new StandardUsernameListBoxModel()
+                        .includeEmptyValue()
+                        .includeAs(ACL.SYSTEM, Jenkins.get(), StandardUsernamePasswordCredentials.class)
+                        .includeCurrentValue(credentialsId);
+            }
+
             @RequirePOST
             public FormValidation doTestConnection(@QueryParameter("host") final String host,
                                                    @QueryParameter("port") final String port,
                                                    @QueryParameter("username") final String username,
                                                    @QueryParameter("password") final String password,
+                                                   @QueryParameter("credentialsId") final String credentialsId,
                                                    @QueryParameter("isSecure") final String isSecure,
-                                                   @QueryParameter("virtualHost") final String virtualHost) {
+                                                   @QueryParameter("virtualHost") final String virtualHost,
+                                                   @QueryParameter("trustStore") final String trustStore,
+                                                   @QueryParameter("trustStorePassword") final String trustStorePassword,
+                                                   @QueryParameter("keyStore") final String keyStore,
+                                                   @QueryParameter("keyStorePassword") final String keyStorePassword,
+                                                   @QueryParameter("tlsProtocols") final String tlsProtocols,
+                                                   @QueryParameter("cipherSuites") final String cipherSuites) {
                 // https://jenkins.io/doc/developer/security/form-validation/
                 Jenkins.getActiveInstance().checkPermission(Jenkins.ADMINISTER); // Keep this deprecated method for compatibility with old jenkins
 
                 try {
+                    CachedCredentials credentials = CachedCredentials.resolve(credentialsId, username, password);
                     ConnectionFactory connectionFactory = RabbitMqFactory.createConnectionFactory(
-                            username,
-                            getDecodedPassword(password),
+                            credentials.getUsername(),
+                            credentials.getPassword(),
                             host,
                             Integer.parseInt(port),
-                            Boolean.parseBoolean(isSecure),
+                            Boolean.parseBoolean(isSecure)
+                                    ? TlsContext.of(Util.fixEmptyAndTrim(trustStore), getDecodedPassword(trustStorePassword),
+                                    Util.fixEmptyAndTrim(keyStore), getDecodedPassword(keyStorePassword), tlsProtocols,
+                                    cipherSuites)
+                                    : null,
                             virtualHost
                     );
 
@@ -465,7 +1296,7 @@ public class RabbitMqBuilder extends Builder implements SimpleBuildStep {
                             return FormValidation.error("Connection failed");
                         }
                     }
-                } catch (IOException | TimeoutException | GeneralSecurityException e) {
+                } catch (IOException | TimeoutException | GeneralSecurityException | IllegalStateException e) {
                     LOGGER.error("Connection error", e);
                     return FormValidation.error("Client error : " + e.getMessage());
                 }
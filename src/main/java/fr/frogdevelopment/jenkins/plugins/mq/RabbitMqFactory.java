@@ -17,21 +17,27 @@ class RabbitMqFactory {
     static ConnectionFactory mockConnectionFactory; // keep it, for test use
     static RabbitTemplate mockRabbitTemplate; // keep it, for test use
 
-    static ConnectionFactory createConnectionFactory(String username, String password, String host, int port, boolean isSecure,String virtualHost) throws GeneralSecurityException {
+    /**
+     * @param tlsContext TLS context of the connections, the only one applied to the factory, null if not secure
+     */
+    static ConnectionFactory createConnectionFactory(String username, String password, String host, int port, TlsContext tlsContext, String virtualHost) {
 
         LOGGER.info("Initialisation Rabbit-MQ :\n\t-Host : {}\n\t-Port : {}\n\t-User : {}", host, port, username);
 
         //
-        ConnectionFactory connectionFactory = new ConnectionFactory();
+        ConnectionFactory connectionFactory = ConnectionThreads.newConnectionFactory(tlsContext);
+        // Spring AMQP re-opens its connections itself, the native client enables the recovery of the client
         connectionFactory.setAutomaticRecoveryEnabled(false);
         connectionFactory.setHost(host);
         connectionFactory.setPort(port);
         connectionFactory.setUsername(username);
         connectionFactory.setPassword(password);
         connectionFactory.setVirtualHost(virtualHost);
+        connectionFactory.setThreadFactory(PublishExecutor.threadFactory());
+        ConnectionThreads.applyTo(connectionFactory);
 
-        if (isSecure) {
-            connectionFactory.useSslProtocol();
+        if (tlsContext != null) {
+            tlsContext.applyTo(connectionFactory);
         }
 
         return connectionFactory;
@@ -45,15 +51,18 @@ class RabbitMqFactory {
     }
 
     static CachingConnectionFactory getCachingConnectionFactory(RabbitMqBuilder.RabbitConfig rabbitConfig) throws GeneralSecurityException {
-        ConnectionFactory connectionFactory = createConnectionFactory(
-                rabbitConfig.getUsername(),
-                rabbitConfig.getDecodedPassword(),
+        return new CachingConnectionFactory(getConnectionFactory(rabbitConfig));
+    }
+
+    static ConnectionFactory getConnectionFactory(RabbitMqBuilder.RabbitConfig rabbitConfig) throws GeneralSecurityException {
+        CachedCredentials credentials = rabbitConfig.getCredentials();
+        return createConnectionFactory(
+                credentials.getUsername(),
+                credentials.getPassword(),
                 rabbitConfig.getHost(),
                 rabbitConfig.getPort(),
-                rabbitConfig.getIsSecure(),
+                rabbitConfig.getTlsContext(),
                 rabbitConfig.getVirtualHost()
         );
-
-        return new CachingConnectionFactory(connectionFactory);
     }
 }
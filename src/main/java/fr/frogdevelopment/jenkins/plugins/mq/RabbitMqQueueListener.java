@@ -1,36 +1,89 @@
 package fr.frogdevelopment.jenkins.plugins.mq;
 
+import fr.frogdevelopment.jenkins.plugins.mq.EventDispatcher.EventType;
+import fr.frogdevelopment.jenkins.plugins.mq.QueueTimes.State;
 import hudson.Extension;
 import hudson.model.Queue;
 import hudson.model.queue.QueueListener;
 import jenkins.model.Jenkins;
-import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
-import java.nio.charset.Charset;
-import java.security.GeneralSecurityException;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-import static org.springframework.amqp.core.MessageBuilder.withBody;
-
+/**
+ * Send an event for each transition of the items of the build queue, with the time spent in each state.<br>
+ * Called with the queue lock held : never wait for the broker here.
+ */
 @Extension
 public class RabbitMqQueueListener extends QueueListener {
 
+    private final QueueTimes queueTimes = new QueueTimes();
+
+    /**
+     * @return times of the items still in the queue
+     */
+    QueueTimes getQueueTimes() {
+        return queueTimes;
+    }
+
     @Override
     public void onEnterWaiting(Queue.WaitingItem wi) {
-        try {
-            Map msg  = new HashMap<String, String>();
-            msg.put("queueId", wi.getId());
-            msg.put("url", Jenkins.get().getRootUrl());
-
-            RabbitMqBuilder.RabbitConfig rConfig = new RabbitMqBuilder.RabbitConfig("rabbitmq", "192.168.48.2", 5672, "admin", "root-123456", false, "/");
-            CachingConnectionFactory factory = RabbitMqFactory.getCachingConnectionFactory(rConfig);
-            RabbitTemplate rabbitTemplate = RabbitMqFactory.getRabbitTemplate(factory);
-            rabbitTemplate.send("flow_tasks_results", "started_live", withBody(msg.toString().getBytes(Charset.forName("UTF-8"))).build());
-        } catch (GeneralSecurityException e) {
-            e.printStackTrace();
+        publish(EventType.QUEUE_WAITING, wi, State.WAITING.getName(),
+                queueTimes.enter(wi.getId(), wi.getInQueueSince(), State.WAITING));
+    }
+
+    @Override
+    public void onLeaveWaiting(Queue.WaitingItem wi) {
+        queueTimes.leave(wi.getId(), State.WAITING);
+    }
+
+    @Override
+    public void onEnterBlocked(Queue.BlockedItem bi) {
+        publish(EventType.QUEUE_BLOCKED, bi, State.BLOCKED.getName(),
+                queueTimes.enter(bi.getId(), bi.getInQueueSince(), State.BLOCKED));
+    }
+
+    @Override
+    public void onLeaveBlocked(Queue.BlockedItem bi) {
+        queueTimes.leave(bi.getId(), State.BLOCKED);
+    }
+
+    @Override
+    public void onEnterBuildable(Queue.BuildableItem bi) {
+        publish(EventType.QUEUE_BUILDABLE, bi, State.BUILDABLE.getName(),
+                queueTimes.enter(bi.getId(), bi.getInQueueSince(), State.BUILDABLE));
+    }
+
+    @Override
+    public void onLeaveBuildable(Queue.BuildableItem bi) {
+        queueTimes.leave(bi.getId(), State.BUILDABLE);
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        Map<String, Object> times = queueTimes.left(li.getId(), li.getInQueueSince());
+        if (li.isCancelled()) {
+            publish(EventType.QUEUE_CANCELLED, li, "cancelled", times);
+        } else {
+            publish(EventType.QUEUE_LEFT, li, "left", times);
+        }
+    }
+
+    private static void publish(EventType type, Queue.Item item, String state, Map<String, Object> times) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("queueId", item.getId());
+        event.put("url", Jenkins.get().getRootUrl());
+        event.put("task", item.task.getFullDisplayName());
+        event.put("taskUrl", item.task.getUrl());
+        event.put("state", state);
+        event.put("timestamp", System.currentTimeMillis());
+        event.putAll(times);
+        if (type == EventType.QUEUE_BLOCKED || type == EventType.QUEUE_BUILDABLE) {
+            event.put("why", item.getWhy());
         }
 
+        Jenkins.get().getDescriptorByType(RabbitMqBuilder.RabbitMqDescriptor.class)
+                .getEventDispatcher()
+                .publish(type, JsonTemplate.write(event));
     }
 }
@@ -0,0 +1,44 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.Extension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Default exporter : logs the spans (debug level) and keeps the last ones in memory, shown on the diagnostics page.
+ */
+@Extension
+public class RecentSpansExporter extends SpanExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecentSpansExporter.class);
+
+    static final int MAX_SPANS = 100;
+
+    private final Deque<PublishSpan> spans = new ArrayDeque<>();
+
+    @Override
+    public void export(PublishSpan span) {
+        LOGGER.debug("{}", span);
+
+        synchronized (spans) {
+            if (spans.size() >= MAX_SPANS) {
+                spans.removeFirst();
+            }
+            spans.addLast(span);
+        }
+    }
+
+    /**
+     * @return last {@value #MAX_SPANS} spans, oldest first
+     */
+    public List<PublishSpan> getSpans() {
+        synchronized (spans) {
+            return new ArrayList<>(spans);
+        }
+    }
+}
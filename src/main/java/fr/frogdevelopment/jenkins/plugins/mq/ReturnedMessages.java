@@ -0,0 +1,125 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ReturnListener;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Correlate the messages returned by the broker as unroutable to the build which published them.<br>
+ * Mandatory messages are stamped with a publish id header when sent, the broker returns them asynchronously, so the
+ * publishing step never waits for it : the build is marked with the configured result if it is still running when the
+ * message comes back. The messages are returned by the template, or by the channels of the native client.
+ */
+class ReturnedMessages implements RabbitTemplate.ReturnCallback, ReturnListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReturnedMessages.class);
+
+    static final String PUBLISH_ID_HEADER = "x-jenkins-publish-id";
+
+    // returns come right after the publish, keep the builds long enough for a slow broker
+    private static final long RETENTION = TimeUnit.MINUTES.toMillis(5);
+
+    private final ConcurrentMap<String, Publish> publishes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> unroutableCounts = new ConcurrentHashMap<>();
+    private final AtomicLong lastPurge = new AtomicLong();
+
+    /**
+     * @param run      build publishing the message
+     * @param listener listener of the build, to log the returned message
+     * @param result   result to set on the build if the message is returned
+     * @return id to set on the {@value #PUBLISH_ID_HEADER} header of the message
+     */
+    String register(Run<?, ?> run, TaskListener listener, Result result) {
+        long now = System.currentTimeMillis();
+        purge(now);
+
+        String publishId = UUID.randomUUID().toString();
+        publishes.put(publishId, new Publish(run, listener, result, now));
+        return publishId;
+    }
+
+    @Override
+    public void returnedMessage(Message message, int replyCode, String replyText, String exchange, String routingKey) {
+        returned(message.getMessageProperties().getHeaders().get(PUBLISH_ID_HEADER), replyCode, replyText, exchange,
+                routingKey);
+    }
+
+    @Override
+    public void handleReturn(int replyCode, String replyText, String exchange, String routingKey,
+                             AMQP.BasicProperties properties, byte[] body) {
+        Map<String, Object> headers = properties.getHeaders();
+        returned(headers != null ? headers.get(PUBLISH_ID_HEADER) : null, replyCode, replyText, exchange, routingKey);
+    }
+
+    private void returned(Object publishId, int replyCode, String replyText, String exchange, String routingKey) {
+        unroutableCounts.computeIfAbsent(exchange, e -> new AtomicLong()).incrementAndGet();
+
+        Publish publish = publishId != null ? publishes.remove(publishId.toString()) : null;
+        if (publish == null) {
+            LOGGER.warn("Message returned by Rabbit-MQ : {} {} (exchange : {}, routing key : {})",
+                    replyCode, replyText, exchange, routingKey);
+            return;
+        }
+
+        Run<?, ?> run = publish.run;
+        LOGGER.warn("Message published by {} returned by Rabbit-MQ : {} {} (exchange : {}, routing key : {})",
+                run, replyCode, replyText, exchange, routingKey);
+
+        if (run.isBuilding()) {
+            publish.listener.getLogger().println(String.format(
+                    "Message returned by Rabbit-MQ : %s %s (exchange : %s, routing key : %s), build marked as %s",
+                    replyCode, replyText, exchange, routingKey, publish.result));
+            run.setResult(publish.result);
+        } else {
+            LOGGER.warn("{} already finished, its result can not be changed", run);
+        }
+    }
+
+    /**
+     * @return number of unroutable messages returned by the broker, per exchange
+     */
+    Map<String, Long> getUnroutableCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        unroutableCounts.forEach((exchange, count) -> counts.put(exchange, count.get()));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    private void purge(long now) {
+        long last = lastPurge.get();
+        if (now - last < 1000 || !lastPurge.compareAndSet(last, now)) {
+            return;
+        }
+
+        publishes.values().removeIf(publish -> now - publish.timestamp > RETENTION);
+    }
+
+    private static class Publish {
+
+        private final Run<?, ?> run;
+        private final TaskListener listener;
+        private final Result result;
+        private final long timestamp;
+
+        private Publish(Run<?, ?> run, TaskListener listener, Result result, long timestamp) {
+            this.run = run;
+            this.listener = listener;
+            this.result = result;
+            this.timestamp = timestamp;
+        }
+    }
+}
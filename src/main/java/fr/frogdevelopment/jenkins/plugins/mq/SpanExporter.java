@@ -0,0 +1,31 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extension point receiving the timing of the published messages, to send them to a tracing backend.
+ */
+public abstract class SpanExporter implements ExtensionPoint {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpanExporter.class);
+
+    /**
+     * Called on the controller once the message is sent, must not block.
+     *
+     * @param span timing of the published message
+     */
+    public abstract void export(PublishSpan span);
+
+    static void exportAll(PublishSpan span) {
+        for (SpanExporter exporter : ExtensionList.lookup(SpanExporter.class)) {
+            try {
+                exporter.export(span);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Error while exporting span {} with {}", span.getSpanId(), exporter.getClass().getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.ConnectionFactory;
+import jenkins.util.SystemProperties;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * TLS settings of the connections of a Rabbit-MQ configuration, built once and shared by all its connections.<br>
+ * The server certificate and host name are verified, against the trust store of the configuration or the default one
+ * of the JVM. As the {@link SSLContext} is reused, its session cache lets the new connections resume the TLS session
+ * of the previous ones instead of doing a full handshake.
+ */
+final class TlsContext {
+
+    private static final int SESSION_CACHE_SIZE = SystemProperties.getInteger(
+            TlsContext.class.getName() + ".sessionCacheSize", 100);
+    private static final int SESSION_TIMEOUT = SystemProperties.getInteger(
+            TlsContext.class.getName() + ".sessionTimeout", 24 * 60 * 60);
+
+    private static volatile TlsContext defaultContext;
+
+    private final SSLContext sslContext;
+    private final String[] protocols;
+    private final String[] cipherSuites;
+    private final String settingsKey;
+
+    private TlsContext(SSLContext sslContext, String[] protocols, String[] cipherSuites, String settingsKey) {
+        this.sslContext = sslContext;
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+        this.settingsKey = settingsKey;
+    }
+
+    /**
+     * @return context trusting the default trust store of the JVM, without client certificate
+     */
+    static TlsContext defaultContext() throws GeneralSecurityException {
+        TlsContext context = defaultContext;
+        if (context == null) {
+            synchronized (TlsContext.class) {
+                context = defaultContext;
+                if (context == null) {
+                    context = create(null, null, null, null, null, null);
+                    defaultContext = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * @return the {@link #defaultContext() default context} if all the settings are blank, a new context otherwise
+     * @see #create(String, String, String, String, String, String)
+     */
+    static TlsContext of(String trustStore, String trustStorePassword, String keyStore, String keyStorePassword,
+                         String protocols, String cipherSuites) throws GeneralSecurityException {
+        if (StringUtils.isBlank(trustStore) && StringUtils.isBlank(keyStore) && StringUtils.isBlank(protocols)
+                && StringUtils.isBlank(cipherSuites)) {
+            return defaultContext();
+        }
+        return create(trustStore, trustStorePassword, keyStore, keyStorePassword, protocols, cipherSuites);
+    }
+
+    /**
+     * @param trustStore         path of the trust store, blank for the default one of the JVM
+     * @param trustStorePassword decrypted password of the trust store
+     * @param keyStore           path of the key store holding the client certificate, blank for none
+     * @param keyStorePassword   decrypted password of the key store and its key
+     * @param protocols          comma separated protocols to enable, blank for the default ones
+     * @param cipherSuites       comma separated cipher suites to enable, blank for the default ones
+     * @throws GeneralSecurityException if a store can not be loaded
+     */
+    static TlsContext create(String trustStore, String trustStorePassword, String keyStore, String keyStorePassword,
+                             String protocols, String cipherSuites) throws GeneralSecurityException {
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(StringUtils.isBlank(trustStore) ? null : load(trustStore, trustStorePassword));
+
+        KeyManagerFactory keyManagerFactory = null;
+        if (StringUtils.isNotBlank(keyStore)) {
+            keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(load(keyStore, keyStorePassword), toChars(keyStorePassword));
+        }
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory != null ? keyManagerFactory.getKeyManagers() : null,
+                trustManagerFactory.getTrustManagers(), null);
+
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+
+        // without the passwords : only the digests are kept
+        String settingsKey = String.join("|", trustStore, digest(trustStorePassword), keyStore, digest(keyStorePassword),
+                protocols, cipherSuites);
+        return new TlsContext(sslContext, split(protocols), split(cipherSuites), settingsKey);
+    }
+
+    private static KeyStore load(String path, String password) throws GeneralSecurityException {
+        String type = StringUtils.endsWithIgnoreCase(path, ".p12") || StringUtils.endsWithIgnoreCase(path, ".pfx")
+                ? "PKCS12"
+                : KeyStore.getDefaultType();
+
+        KeyStore keyStore = KeyStore.getInstance(type);
+        try (InputStream inputStream = Files.newInputStream(Paths.get(path))) {
+            keyStore.load(inputStream, toChars(password));
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Unable to load " + path + " : " + e.getMessage(), e);
+        }
+        return keyStore;
+    }
+
+    private static String digest(String password) {
+        return password != null ? DigestUtils.sha256Hex(password) : null;
+    }
+
+    private static char[] toChars(String password) {
+        return password != null ? password.toCharArray() : null;
+    }
+
+    private static String[] split(String values) {
+        String[] split = StringUtils.split(values, ", \n");
+        return split != null && split.length > 0 ? split : null;
+    }
+
+    SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * @return the settings the context was created with, two contexts with the same settings being equivalent
+     */
+    String getSettingsKey() {
+        return settingsKey;
+    }
+
+    /**
+     * Use this context for the connections opened by the factory.
+     */
+    void applyTo(ConnectionFactory connectionFactory) {
+        connectionFactory.useSslProtocol(sslContext);
+
+        if (protocols != null || cipherSuites != null) {
+            // NIO mode
+            connectionFactory.getNioParams().setSslEngineConfigurator(sslEngine -> {
+                if (protocols != null) {
+                    sslEngine.setEnabledProtocols(protocols);
+                }
+                if (cipherSuites != null) {
+                    sslEngine.setEnabledCipherSuites(cipherSuites);
+                }
+            });
+            // blocking mode
+            connectionFactory.setSocketConfigurator(socket -> {
+                // as the default configurator
+                socket.setTcpNoDelay(true);
+
+                if (socket instanceof SSLSocket) {
+                    SSLSocket sslSocket = (SSLSocket) socket;
+                    if (protocols != null) {
+                        sslSocket.setEnabledProtocols(protocols);
+                    }
+                    if (cipherSuites != null) {
+                        sslSocket.setEnabledCipherSuites(cipherSuites);
+                    }
+                }
+            });
+        }
+
+        // after the engine configurator, as it is chained to it
+        connectionFactory.enableHostnameVerification();
+    }
+}
@@ -0,0 +1,184 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Exchanges, queues and bindings to declare before publishing, one per line :
+ * <ul>
+ * <li><i>exchange name [direct|topic|fanout|headers]</i>, direct by default</li>
+ * <li><i>queue name</i></li>
+ * <li><i>binding exchange queue [routing-key]</i></li>
+ * </ul>
+ * All are durable. The declarations already done on a connection are skipped, so only the first publish pays the round
+ * trips to the broker.
+ */
+final class Topology {
+
+    static final Topology EMPTY = new Topology(Collections.emptyList());
+
+    private final List<Declaration> declarations;
+
+    private Topology(List<Declaration> declarations) {
+        this.declarations = declarations;
+    }
+
+    /**
+     * @param topology declarations, one per line
+     * @return the parsed declarations
+     * @throws IllegalArgumentException if a line is not in the expected format
+     */
+    static Topology parse(String topology) {
+        if (StringUtils.isBlank(topology)) {
+            return EMPTY;
+        }
+
+        List<Declaration> declarations = new ArrayList<>();
+        for (String line : topology.split("\\r?\\n")) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            String[] tokens = StringUtils.split(line.trim());
+            switch (tokens[0]) {
+                case "exchange":
+                    checkLength(line, tokens, 2, 3, "exchange name [type]");
+                    String type = tokens.length == 3 ? tokens[2] : BuiltinExchangeType.DIRECT.getType();
+                    checkExchangeType(line, type);
+                    declarations.add(new Declaration(Kind.EXCHANGE, tokens[1], type));
+                    break;
+
+                case "queue":
+                    checkLength(line, tokens, 2, 2, "queue name");
+                    declarations.add(new Declaration(Kind.QUEUE, tokens[1]));
+                    break;
+
+                case "binding":
+                    checkLength(line, tokens, 3, 4, "binding exchange queue [routing-key]");
+                    declarations.add(new Declaration(Kind.BINDING, tokens[1], tokens[2],
+                            tokens.length == 4 ? tokens[3] : ""));
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Incorrect declaration : " + line
+                            + ". Declarations start with exchange, queue or binding");
+            }
+        }
+
+        return new Topology(Collections.unmodifiableList(declarations));
+    }
+
+    private static void checkLength(String line, String[] tokens, int min, int max, String format) {
+        if (tokens.length < min || tokens.length > max) {
+            throw new IllegalArgumentException("Incorrect declaration : " + line + ". Expected format is " + format);
+        }
+    }
+
+    private static void checkExchangeType(String line, String type) {
+        for (BuiltinExchangeType exchangeType : BuiltinExchangeType.values()) {
+            if (exchangeType.getType().equals(type)) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Incorrect exchange type : " + line
+                + ". Types are direct, topic, fanout or headers");
+    }
+
+    boolean isEmpty() {
+        return declarations.isEmpty();
+    }
+
+    /**
+     * Declare on the broker what is not in the already declared ones, in a single channel.
+     *
+     * @param template template of the connection
+     * @param declared declarations already done on the connection, completed with the new ones
+     * @return number of declarations sent to the broker
+     */
+    int declareMissing(RabbitTemplate template, Set<String> declared) {
+        List<Declaration> missing = missing(declared);
+        if (missing.isEmpty()) {
+            return 0;
+        }
+
+        template.execute(channel -> {
+            declare(channel, missing);
+            return null;
+        });
+        missing.forEach(declaration -> declared.add(declaration.key));
+        return missing.size();
+    }
+
+    /**
+     * @param channel  channel of the connection, not closed
+     * @param declared declarations already done on the connection, completed with the new ones
+     * @return number of declarations sent to the broker
+     * @see #declareMissing(RabbitTemplate, Set)
+     */
+    int declareMissing(Channel channel, Set<String> declared) throws IOException {
+        List<Declaration> missing = missing(declared);
+        declare(channel, missing);
+        missing.forEach(declaration -> declared.add(declaration.key));
+        return missing.size();
+    }
+
+    private List<Declaration> missing(Set<String> declared) {
+        List<Declaration> missing = new ArrayList<>();
+        for (Declaration declaration : declarations) {
+            if (!declared.contains(declaration.key)) {
+                missing.add(declaration);
+            }
+        }
+        return missing;
+    }
+
+    private static void declare(Channel channel, List<Declaration> declarations) throws IOException {
+        for (Declaration declaration : declarations) {
+            declaration.declare(channel);
+        }
+    }
+
+    private enum Kind {
+        EXCHANGE,
+        QUEUE,
+        BINDING
+    }
+
+    private static class Declaration {
+
+        private final Kind kind;
+        private final String[] arguments;
+        private final String key;
+
+        private Declaration(Kind kind, String... arguments) {
+            this.kind = kind;
+            this.arguments = arguments;
+            this.key = kind + " " + String.join(" ", arguments);
+        }
+
+        private void declare(Channel channel) throws IOException {
+            switch (kind) {
+                case EXCHANGE:
+                    channel.exchangeDeclare(arguments[0], arguments[1], true);
+                    break;
+
+                case QUEUE:
+                    channel.queueDeclare(arguments[0], true, false, false, null);
+                    break;
+
+                case BINDING:
+                default:
+                    channel.queueBind(arguments[1], arguments[0], arguments[2]);
+                    break;
+            }
+        }
+    }
+}
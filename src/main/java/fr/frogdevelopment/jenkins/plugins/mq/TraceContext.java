@@ -0,0 +1,128 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.model.Run;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * W3C trace context (https://www.w3.org/TR/trace-context/) of a published message, sent in its {@value #HEADER}
+ * header so the consumers can continue the trace.<br>
+ * The messages published by a build share a trace whose id is derived from the build id, so the trace of a build can
+ * be found without storing it. A build given a context by its {@value #VARIABLE} parameter (eg: triggered by a traced
+ * system) continues that trace instead. Background events each start a new trace.
+ */
+final class TraceContext {
+
+    static final String HEADER = "traceparent";
+    static final String VARIABLE = "TRACEPARENT";
+
+    private static final Pattern TRACEPARENT_PATTERN = Pattern.compile(
+            "00-(?<traceId>[0-9a-f]{32})-(?<spanId>[0-9a-f]{16})-(?<flags>[0-9a-f]{2})");
+    private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+
+    private TraceContext(String traceId, String spanId, String parentSpanId) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+    }
+
+    /**
+     * @param run build publishing the message
+     * @return a new span in the trace of the build
+     */
+    static TraceContext forRun(Run<?, ?> run) {
+        return forRun(run, null);
+    }
+
+    /**
+     * @param run         build publishing the message
+     * @param traceparent context received by the build, null if none
+     * @return a new span in the received trace if valid, in the trace of the build otherwise
+     */
+    static TraceContext forRun(Run<?, ?> run, String traceparent) {
+        TraceContext parent = parse(traceparent);
+        if (parent != null) {
+            return parent.newChild();
+        }
+        return new TraceContext(DigestUtils.md5Hex(run.getExternalizableId()), randomId(16), null);
+    }
+
+    /**
+     * @return a new span in a new trace
+     */
+    static TraceContext newTrace() {
+        String traceId;
+        do {
+            traceId = randomId(32);
+        } while (INVALID_TRACE_ID.equals(traceId));
+        return new TraceContext(traceId, randomId(16), null);
+    }
+
+    /**
+     * @param traceparent value of a {@value #HEADER} header
+     * @return the context, null if the value is not valid
+     */
+    static TraceContext parse(String traceparent) {
+        if (traceparent == null) {
+            return null;
+        }
+
+        Matcher matcher = TRACEPARENT_PATTERN.matcher(traceparent.trim());
+        if (!matcher.matches() || INVALID_TRACE_ID.equals(matcher.group("traceId"))
+                || "0000000000000000".equals(matcher.group("spanId"))) {
+            return null;
+        }
+
+        return new TraceContext(matcher.group("traceId"), matcher.group("spanId"), null);
+    }
+
+    /**
+     * @return a new span in the same trace, child of this one
+     */
+    TraceContext newChild() {
+        return new TraceContext(traceId, randomId(16), spanId);
+    }
+
+    private static String randomId(int length) {
+        StringBuilder id = new StringBuilder(length);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (id.length() < length) {
+            String part = Long.toHexString(random.nextLong());
+            for (int i = part.length(); i < 16; i++) {
+                id.append('0');
+            }
+            id.append(part);
+        }
+        id.setLength(length);
+        return id.toString();
+    }
+
+    String getTraceId() {
+        return traceId;
+    }
+
+    String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return span continued by this one, null if it starts its trace
+     */
+    String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     * @return value of the {@value #HEADER} header, always sampled
+     */
+    String toTraceparent() {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+}
@@ -1,20 +1,18 @@
 package fr.frogdevelopment.jenkins.plugins.mq;
 
-import net.sf.json.JSONObject;
-
-import org.apache.commons.lang.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import hudson.EnvVars;
 
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 abstract class Utils {
 
     private static final Pattern PARAM_PATTERN = Pattern.compile("\\$\\{?(?<param>\\w+)}?");
-
-    private static final Logger LOGGER = LoggerFactory.getLogger(Utils.class);
+    // same syntax as the environment variables expansion
+    static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$(?:\\{(?<braced>[\\w.]+)}|(?<name>\\w+))");
 
     /**
      * Transform a string with "_" to camelCase string, for Java convention.<br>
@@ -52,6 +50,30 @@ abstract class Utils {
         return sb.toString();
     }
 
+    /**
+     * Find the variables referenced by templates.<br>
+     * Ex : "${JOB_NAME}-$BUILD_NUMBER" => [JOB_NAME, BUILD_NUMBER]
+     *
+     * @param templates texts which can contain variables, null are ignored
+     * @return names of the variables, in order of appearance
+     */
+    static Set<String> getReferencedVariables(String... templates) {
+        Set<String> variables = new LinkedHashSet<>();
+        for (String template : templates) {
+            if (template == null) {
+                continue;
+            }
+
+            Matcher matcher = VARIABLE_PATTERN.matcher(template);
+            while (matcher.find()) {
+                String braced = matcher.group("braced");
+                variables.add(braced != null ? braced : matcher.group("name"));
+            }
+        }
+
+        return variables;
+    }
+
     static String getRawMessage(Map<String, String> buildParameters, String message) {
 
         // resolving build data
@@ -75,48 +97,6 @@ abstract class Utils {
     }
 
     static String getJsonMessage(Map<String, String> buildParameters, String message) {
-        boolean hasError = false;
-
-        // constructing JSON message
-        JSONObject jsonObject = new JSONObject();
-
-        String[] lines = message.split("\\r?\\n");
-        if (lines.length > 0) {
-            for (String line : lines) {
-                String[] splitLine = line.split("=");
-                if (splitLine.length == 2) {
-                    String paramKey = splitLine[0];
-                    String paramValue = splitLine[1];
-                    if (StringUtils.isNotBlank(paramKey)) {
-                        Matcher matcher = PARAM_PATTERN.matcher(paramValue);
-                        if (matcher.find()) {
-                            String param = matcher.group("param");
-                            if (buildParameters.containsKey(param)) {
-                                paramValue = buildParameters.get(param);
-                            }
-                        }
-
-                        LOGGER.info("\t- " + paramKey + "=" + paramValue);
-                        if (paramValue != null) {
-                            jsonObject.put(toJava(paramKey), paramValue);
-                        } else {
-                            jsonObject.put(toJava(paramKey), "null");
-                        }
-                    } else {
-                        LOGGER.info("\t- Empty key for line : {}", line);
-                        hasError = true;
-                    }
-                } else {
-                    LOGGER.error("\t- Incorrect data format : {}", line);
-                    hasError = true;
-                }
-            }
-        }
-
-        if (hasError) {
-            throw new IllegalStateException("Incorrect data");
-        }
-
-        return jsonObject.toString();
+        return JsonTemplate.compile(message).render(buildParameters, new EnvVars());
     }
 }
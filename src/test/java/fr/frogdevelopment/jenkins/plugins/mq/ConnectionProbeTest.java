@@ -0,0 +1,59 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConnectionProbeTest {
+
+    @Test
+    public void test_percentile() {
+        double[] values = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+        Assertions.assertThat(ConnectionProbe.percentile(values, 50)).isEqualTo(5);
+        Assertions.assertThat(ConnectionProbe.percentile(values, 95)).isEqualTo(10);
+        Assertions.assertThat(ConnectionProbe.percentile(values, 99)).isEqualTo(10);
+        Assertions.assertThat(ConnectionProbe.percentile(new double[]{42}, 50)).isEqualTo(42);
+    }
+
+    @Test
+    public void test_probeAll_parallel_with_own_timeout() throws InterruptedException {
+        // data : more configurations than a default pool, each probe taking more than half of the timeout
+        List<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            rabbitConfigs.add(new RabbitConfig("rabbit-" + i, "roger-rabbit", 5672, "guest", "guest", false, "/"));
+        }
+        rabbitConfigs.add(new RabbitConfig("slow", "roger-rabbit", 5672, "guest", "guest", false, "/"));
+
+        // probe timeout : 4 x 250 ms
+        ConnectionProbe probe = new ConnectionProbe(250, 0) {
+            @Override
+            Result probe(RabbitConfig rabbitConfig) {
+                try {
+                    Thread.sleep("slow".equals(rabbitConfig.getName()) ? 10_000 : 600);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Result.timedOut(rabbitConfig);
+                }
+                return Result.of(rabbitConfig, "OK");
+            }
+        };
+
+        // call
+        long start = System.currentTimeMillis();
+        List<ConnectionProbe.Result> results = probe.probeAll(rabbitConfigs);
+        long duration = System.currentTimeMillis() - start;
+
+        // assertions
+        Assertions.assertThat(results).hasSize(16);
+        for (int i = 0; i < 15; i++) {
+            Assertions.assertThat(results.get(i).getName()).isEqualTo("rabbit-" + i);
+            Assertions.assertThat(results.get(i).getStatus()).isEqualTo("OK");
+        }
+        Assertions.assertThat(results.get(15).getStatus()).isEqualTo("Timed out");
+        Assertions.assertThat(duration).isLessThan(5_000);
+    }
+}
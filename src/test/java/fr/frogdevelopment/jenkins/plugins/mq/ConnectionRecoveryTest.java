@@ -0,0 +1,49 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionRecoveryTest {
+
+    @Test
+    public void test_jittered_backoff() {
+        // data
+        ConnectionRecovery.JitteredBackoff backoff = new ConnectionRecovery.JitteredBackoff(1_000, 8_000, null);
+
+        for (int i = 0; i < 100; i++) {
+            // call & assertions
+            Assertions.assertThat(backoff.getDelay(0)).isBetween(500L, 1_000L);
+            Assertions.assertThat(backoff.getDelay(2)).isBetween(2_000L, 4_000L);
+            Assertions.assertThat(backoff.getDelay(10)).isBetween(4_000L, 8_000L);
+            Assertions.assertThat(backoff.getDelay(Integer.MAX_VALUE)).isBetween(4_000L, 8_000L);
+        }
+    }
+
+    @Test
+    public void test_gate() throws Exception {
+        // data
+        ConnectionRecovery.Stats stats = new ConnectionRecovery.Stats();
+        ConnectionRecovery.Gate gate = new ConnectionRecovery.Gate("rabbit-test", stats);
+        ConnectionRecovery.JitteredBackoff backoff = new ConnectionRecovery.JitteredBackoff(1_000, 8_000, gate);
+
+        // call : connection lost
+        backoff.getDelay(0);
+        gate.handleRecoveryStarted(null);
+        CompletableFuture<Void> publisher = CompletableFuture.runAsync(gate::await);
+
+        // assertions
+        Thread.sleep(100);
+        Assertions.assertThat(publisher).isNotDone();
+        Assertions.assertThat(stats.getLost()).isEqualTo(1);
+
+        // call : connection recovered
+        gate.handleRecovery(null);
+
+        // assertions
+        publisher.get(1, TimeUnit.SECONDS);
+        Assertions.assertThat(stats.getRecovered()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,56 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.impl.nio.SocketChannelFrameHandlerFactory;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectionThreadsTest {
+
+    @After
+    public void tearDown() {
+        ConnectionThreads.configure(false, ConnectionThreads.DEFAULT_IO_THREADS);
+        ConnectionThreads.shutdown();
+    }
+
+    @Test
+    public void test_nio_loops_are_shared() throws Exception {
+        // data
+        ConnectionThreads.configure(true, 3);
+        ConnectionThreads.SharedIoConnectionFactory connectionFactory =
+                (ConnectionThreads.SharedIoConnectionFactory) ConnectionThreads.newConnectionFactory(null);
+        ConnectionThreads.SharedIoConnectionFactory other =
+                (ConnectionThreads.SharedIoConnectionFactory) ConnectionThreads.newConnectionFactory(null);
+        ConnectionThreads.SharedIoConnectionFactory secure =
+                (ConnectionThreads.SharedIoConnectionFactory) ConnectionThreads.newConnectionFactory(TlsContext.defaultContext());
+
+        // call
+        ConnectionThreads.applyTo(connectionFactory);
+        ConnectionThreads.applyTo(other);
+        ConnectionThreads.applyTo(secure);
+        TlsContext.defaultContext().applyTo(secure);
+
+        // assertions : same loops for the same TLS settings, whatever the factory
+        Assertions.assertThat(other.createFrameHandlerFactory()).isSameAs(connectionFactory.createFrameHandlerFactory());
+        Assertions.assertThat(secure.createFrameHandlerFactory()).isNotSameAs(connectionFactory.createFrameHandlerFactory());
+        // one thread per loop
+        Assertions.assertThat(ConnectionThreads.getIoExecutor().getMaximumPoolSize()).isEqualTo(6);
+        Assertions.assertThat(ConnectionThreads.getIoExecutor().getCorePoolSize()).isEqualTo(6);
+    }
+
+    @Test
+    public void test_blocking() {
+        // data
+        ConnectionThreads.configure(false, 3);
+        ConnectionThreads.SharedIoConnectionFactory connectionFactory =
+                (ConnectionThreads.SharedIoConnectionFactory) ConnectionThreads.newConnectionFactory(null);
+
+        // call
+        ConnectionThreads.applyTo(connectionFactory);
+
+        // assertions
+        Assertions.assertThat(connectionFactory.createFrameHandlerFactory())
+                .isNotInstanceOf(SocketChannelFrameHandlerFactory.class);
+        Assertions.assertThat(ConnectionThreads.getIoExecutor()).isNull();
+    }
+}
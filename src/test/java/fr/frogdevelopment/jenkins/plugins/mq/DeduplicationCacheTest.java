@@ -0,0 +1,55 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DeduplicationCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void test_duplicate_within_window() {
+        DeduplicationCache cache = new DeduplicationCache(10, 60, TimeUnit.SECONDS, now::get);
+
+        Assertions.assertThat(cache.tryAcquire("key")).isTrue();
+        now.addAndGet(TimeUnit.SECONDS.toMillis(59));
+        Assertions.assertThat(cache.tryAcquire("key")).isFalse();
+        Assertions.assertThat(cache.tryAcquire("other")).isTrue();
+    }
+
+    @Test
+    public void test_expired_key() {
+        DeduplicationCache cache = new DeduplicationCache(10, 60, TimeUnit.SECONDS, now::get);
+
+        Assertions.assertThat(cache.tryAcquire("key")).isTrue();
+        now.addAndGet(TimeUnit.SECONDS.toMillis(60));
+        Assertions.assertThat(cache.size()).isZero();
+        Assertions.assertThat(cache.tryAcquire("key")).isTrue();
+    }
+
+    @Test
+    public void test_eldest_evicted_when_full() {
+        DeduplicationCache cache = new DeduplicationCache(2, 60, TimeUnit.SECONDS, now::get);
+
+        cache.tryAcquire("key_1");
+        cache.tryAcquire("key_2");
+        cache.tryAcquire("key_3");
+
+        Assertions.assertThat(cache.size()).isEqualTo(2);
+        Assertions.assertThat(cache.tryAcquire("key_1")).isTrue();
+        Assertions.assertThat(cache.tryAcquire("key_3")).isFalse();
+    }
+
+    @Test
+    public void test_release() {
+        DeduplicationCache cache = new DeduplicationCache(10, 60, TimeUnit.SECONDS, now::get);
+
+        cache.tryAcquire("key");
+        cache.release("key");
+
+        Assertions.assertThat(cache.tryAcquire("key")).isTrue();
+    }
+}
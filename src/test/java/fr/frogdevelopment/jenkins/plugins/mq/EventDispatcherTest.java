@@ -0,0 +1,157 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.EventDispatcher.EventType;
+import fr.frogdevelopment.jenkins.plugins.mq.EventDispatcher.Lane;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EventDispatcherTest {
+
+    @Test
+    public void test_weighted_draining() throws InterruptedException {
+        // data
+        RabbitConfig bulkConfig = new RabbitConfig("bulk", "host", 5672, "guest", "guest", false, "/");
+        bulkConfig.setEventsExchange("events");
+
+        RabbitConfig criticalConfig = new RabbitConfig("critical", "host", 5672, "guest", "guest", false, "/");
+        criticalConfig.setEventsExchange("events");
+        criticalConfig.setEventLanes("queue.waiting=critical");
+
+        RabbitConfig disabledConfig = new RabbitConfig("disabled", "host", 5672, "guest", "guest", false, "/");
+
+        List<RabbitConfig> rabbitConfigs = new CopyOnWriteArrayList<>();
+        CountDownLatch firstSent = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch allSent = new CountDownLatch(16);
+        List<String> sent = new CopyOnWriteArrayList<>();
+
+        EventDispatcher dispatcher = new EventDispatcher(4, new Backpressure(Backpressure.Policy.DROP_NEWEST, 100, 1),
+                () -> rabbitConfigs, event -> {
+                    sent.add(event.getLane() + "-" + event.getBody());
+                    firstSent.countDown();
+                    try {
+                        // hold the drainer so the lanes fill up
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    allSent.countDown();
+                });
+
+        try {
+            // call
+            rabbitConfigs.add(bulkConfig);
+            rabbitConfigs.add(disabledConfig);
+            dispatcher.publish(EventType.QUEUE_WAITING, "0");
+            Assertions.assertThat(firstSent.await(5, TimeUnit.SECONDS)).isTrue();
+
+            for (int i = 1; i <= 3; i++) {
+                dispatcher.publish(EventType.QUEUE_WAITING, String.valueOf(i));
+            }
+            rabbitConfigs.clear();
+            rabbitConfigs.add(criticalConfig);
+            for (int i = 1; i <= 12; i++) {
+                dispatcher.publish(EventType.QUEUE_WAITING, String.valueOf(i));
+            }
+            release.countDown();
+
+            // assertions
+            Assertions.assertThat(allSent.await(5, TimeUnit.SECONDS)).isTrue();
+            Assertions.assertThat(sent).containsExactly(
+                    "BULK-0",
+                    "CRITICAL-1", "CRITICAL-2", "CRITICAL-3", "CRITICAL-4",
+                    "BULK-1",
+                    "CRITICAL-5", "CRITICAL-6", "CRITICAL-7", "CRITICAL-8",
+                    "BULK-2",
+                    "CRITICAL-9", "CRITICAL-10", "CRITICAL-11", "CRITICAL-12",
+                    "BULK-3");
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void test_backpressure_drop_oldest() throws InterruptedException {
+        assertBackpressure(new Backpressure(Backpressure.Policy.DROP_OLDEST, 2, 1), 4,
+                Arrays.asList("0", "3", "4"), 2);
+    }
+
+    @Test
+    public void test_backpressure_drop_newest() throws InterruptedException {
+        assertBackpressure(new Backpressure(Backpressure.Policy.DROP_NEWEST, 2, 1), 4,
+                Arrays.asList("0", "1", "2"), 2);
+    }
+
+    @Test
+    public void test_backpressure_sample() throws InterruptedException {
+        // half full after 2 events : keep 1 event out of 2, then full after 4 events
+        assertBackpressure(new Backpressure(Backpressure.Policy.SAMPLE, 4, 2), 6,
+                Arrays.asList("0", "1", "2", "3", "5"), 2);
+    }
+
+    /**
+     * Publish one event held by the drainer, then the given number of events filling the lane.
+     */
+    private static void assertBackpressure(Backpressure backpressure, int events, List<String> expectedSent,
+                                           long expectedDropped) throws InterruptedException {
+        // data
+        RabbitConfig rabbitConfig = new RabbitConfig("rabbit", "host", 5672, "guest", "guest", false, "/");
+        rabbitConfig.setEventsExchange("events");
+
+        CountDownLatch firstSent = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch allSent = new CountDownLatch(expectedSent.size());
+        List<String> sent = new CopyOnWriteArrayList<>();
+
+        EventDispatcher dispatcher = new EventDispatcher(1, backpressure, () -> Collections.singletonList(rabbitConfig),
+                event -> {
+                    sent.add(event.getBody());
+                    firstSent.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    allSent.countDown();
+                });
+
+        try {
+            // call
+            dispatcher.publish(EventType.QUEUE_WAITING, "0");
+            Assertions.assertThat(firstSent.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 1; i <= events; i++) {
+                dispatcher.publish(EventType.QUEUE_WAITING, String.valueOf(i));
+            }
+            release.countDown();
+
+            // assertions
+            Assertions.assertThat(allSent.await(5, TimeUnit.SECONDS)).isTrue();
+            Assertions.assertThat(sent).isEqualTo(expectedSent);
+            Assertions.assertThat(dispatcher.getDroppedCounts()).containsEntry("queue.waiting", expectedDropped);
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void test_parseLanes() {
+        Assertions.assertThat(EventDispatcher.parseLanes(null)).isEmpty();
+        Assertions.assertThat(EventDispatcher.parseLanes("queue.waiting = Critical\n"))
+                .isEqualTo(Collections.singletonMap(EventType.QUEUE_WAITING, Lane.CRITICAL));
+
+        Assertions.assertThatThrownBy(() -> EventDispatcher.parseLanes("queue.waiting"))
+                .isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThatThrownBy(() -> EventDispatcher.parseLanes("unknown=BULK"))
+                .isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThatThrownBy(() -> EventDispatcher.parseLanes("queue.waiting=FAST"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,59 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IngestActionTest {
+
+    @Test
+    public void test_publish() throws IOException {
+        // data
+        List<String> sent = new ArrayList<>();
+        String body = "{\"id\":1}\r\n" +
+                "\n" +
+                "not json\n" +
+                "[1,2]";
+
+        // call
+        IngestAction.Batch batch = new IngestAction.Batch();
+        batch.publish(sent::add, new StringReader(body));
+        MessageProperties properties = new MessageProperties();
+        batch.properties().applyTo(properties);
+
+        // assertions
+        Assertions.assertThat(batch.getPublished()).isEqualTo(2);
+        Assertions.assertThat(batch.getRejected()).isEqualTo(1);
+        Assertions.assertThat(batch.toJson()).contains("\"published\":2,\"rejected\":1,\"errors\":[\"line 3 : ");
+
+        Assertions.assertThat(sent).containsExactly("{\"id\":1}", "[1,2]");
+        Assertions.assertThat(properties.getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+        Assertions.assertThat((String) properties.getHeader(TraceContext.HEADER)).isNotNull();
+    }
+
+    @Test
+    public void test_publish_record_too_long() throws IOException {
+        // data
+        List<String> sent = new ArrayList<>();
+        StringBuilder body = new StringBuilder("[\"");
+        for (int i = 0; i <= IngestAction.MAX_RECORD_LENGTH; i++) {
+            body.append('a');
+        }
+        body.append("\"]\n{\"id\":2}\n");
+
+        // call
+        IngestAction.Batch batch = new IngestAction.Batch();
+        batch.publish(sent::add, new StringReader(body.toString()));
+
+        // assertions
+        Assertions.assertThat(batch.getPublished()).isEqualTo(1);
+        Assertions.assertThat(sent).containsExactly("{\"id\":2}");
+        Assertions.assertThat(batch.getRejected()).isEqualTo(1);
+        Assertions.assertThat(batch.toJson()).contains("line 1 : record longer than");
+    }
+}
@@ -0,0 +1,172 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.EnvVars;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class JsonTemplateTest {
+
+    @Test
+    public void test_render_nested() {
+        // data
+        Map<String, String> buildParameters = new HashMap<>();
+        buildParameters.put("PARAM_1", "VALUE_1");
+
+        EnvVars env = new EnvVars();
+        env.put("BUILD_NUMBER", "42");
+        env.put("JOB_NAME", "my \"job\"");
+
+        String template = "job.name=${JOB_NAME}\n" +
+                "job.build_number:number=$BUILD_NUMBER\n" +
+                "job.version=\"1.0\"\n" +
+                "\n" +
+                "tags[]=release\n" +
+                "tags[]=${PARAM_1}\n" +
+                "steps[0].name=build\n" +
+                "steps[0].success=true\n" +
+                "steps[1].name=deploy\n" +
+                "steps[1].duration=1.5e3\n" +
+                "url=http://host/?a=b\n" +
+                "missing=${UNKNOWN}\n" +
+                "empty=null";
+
+        // call
+        JsonTemplate jsonTemplate = JsonTemplate.compile(template);
+        String json = jsonTemplate.render(buildParameters, env);
+
+        // assertions
+        Assertions.assertThat(jsonTemplate.hasVariableKeys()).isFalse();
+        Assertions.assertThat(json).isEqualTo("{" +
+                "\"job\":{\"name\":\"my \\\"job\\\"\",\"buildNumber\":42,\"version\":\"1.0\"}," +
+                "\"tags\":[\"release\",\"VALUE_1\"]," +
+                "\"steps\":[{\"name\":\"build\",\"success\":\"true\"},{\"name\":\"deploy\",\"duration\":\"1.5e3\"}]," +
+                "\"url\":\"http://host/?a=b\"," +
+                "\"missing\":\"${UNKNOWN}\"," +
+                "\"empty\":null" +
+                "}");
+    }
+
+    @Test
+    public void test_render_untyped_values_as_former_conversion() {
+        // data
+        String template = "nb=1\n" +
+                "flag=true\n" +
+                "empty=null\n" +
+                "quoted=\"null\"\n" +
+                "count:number=1\n" +
+                "enabled:boolean=false";
+
+        // call
+        String json = JsonTemplate.compile(template).render(new HashMap<>(), new EnvVars());
+
+        // assertions : only null and the typed keys are not strings, as with the json-lib conversion
+        Assertions.assertThat(json).isEqualTo("{\"nb\":\"1\",\"flag\":\"true\",\"empty\":null,\"quoted\":\"null\"," +
+                "\"count\":1,\"enabled\":false}");
+    }
+
+    @Test
+    public void test_render_env_prevails() {
+        // data
+        Map<String, String> buildParameters = new HashMap<>();
+        buildParameters.put("VALUE", "from-parameters");
+
+        EnvVars env = new EnvVars();
+        env.put("VALUE", "from-env");
+
+        // call
+        String json = JsonTemplate.compile("value=$VALUE").render(buildParameters, env);
+
+        // assertions
+        Assertions.assertThat(json).isEqualTo("{\"value\":\"from-env\"}");
+    }
+
+    @Test
+    public void test_render_type_decided_by_template() {
+        // data
+        JsonTemplate jsonTemplate = JsonTemplate.compile("id=$ID\n" +
+                "count:number=$ID\n" +
+                "enabled:boolean=${ENABLED}\n" +
+                "code:string=123");
+
+        EnvVars numeric = new EnvVars();
+        numeric.put("ID", "123");
+        numeric.put("ENABLED", "true");
+
+        EnvVars text = new EnvVars();
+        text.put("ID", "abc");
+        text.put("ENABLED", "yes");
+
+        // call
+        String numericJson = jsonTemplate.render(new HashMap<>(), numeric);
+        String textJson = jsonTemplate.render(new HashMap<>(), text);
+
+        // assertions : same types whatever the values of the variables
+        Assertions.assertThat(numericJson).isEqualTo("{\"id\":\"123\",\"count\":123,\"enabled\":true,\"code\":\"123\"}");
+        Assertions.assertThat(textJson).isEqualTo("{\"id\":\"abc\",\"count\":null,\"enabled\":null,\"code\":\"123\"}");
+    }
+
+    @Test
+    public void test_write() {
+        // data
+        Map<String, Object> job = new LinkedHashMap<>();
+        job.put("name", "my \"job\"");
+        job.put("build_number", 42);
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("job", job);
+        payload.put("tags", Arrays.asList("release", "${NOT_EXPANDED}"));
+        payload.put("flags", new Object[]{true, null});
+        payload.put("duration", new BigDecimal("1.5"));
+        payload.put("ratio", Double.NaN);
+
+        // call
+        String json = JsonTemplate.write(payload);
+
+        // assertions
+        Assertions.assertThat(json).isEqualTo("{" +
+                "\"job\":{\"name\":\"my \\\"job\\\"\",\"build_number\":42}," +
+                "\"tags\":[\"release\",\"${NOT_EXPANDED}\"]," +
+                "\"flags\":[true,null]," +
+                "\"duration\":1.5," +
+                "\"ratio\":null" +
+                "}");
+    }
+
+    @Test
+    public void test_hasVariableKeys() {
+        Assertions.assertThat(JsonTemplate.compile("${KEY}=value").hasVariableKeys()).isTrue();
+    }
+
+    @Test
+    public void test_compile_errors() {
+        Assertions.assertThatThrownBy(() -> JsonTemplate.compile("incorrect:format"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Expected format is key=value");
+
+        Assertions.assertThatThrownBy(() -> JsonTemplate.compile("=empty"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Empty key");
+
+        Assertions.assertThatThrownBy(() -> JsonTemplate.compile("field=value\nfield.child=value"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Conflicting key");
+
+        Assertions.assertThatThrownBy(() -> JsonTemplate.compile("list[]=value\nlist.child=value"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Conflicting key");
+
+        Assertions.assertThatThrownBy(() -> JsonTemplate.compile("field..child=value"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Incorrect key");
+
+        Assertions.assertThatThrownBy(() -> JsonTemplate.compile("count:number=abc"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Incorrect number value");
+    }
+}
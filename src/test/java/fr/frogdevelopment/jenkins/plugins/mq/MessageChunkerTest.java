@@ -0,0 +1,125 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.AMQP;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MessageChunkerTest {
+
+    @Test
+    public void test_split_small_message() {
+        // data
+        Message message = MessageBuilder.withBody("small".getBytes(StandardCharsets.UTF_8)).build();
+
+        // call
+        List<Message> chunks = MessageChunker.split(message, 10);
+
+        // assertions
+        Assertions.assertThat(chunks).containsExactly(message);
+    }
+
+    @Test
+    public void test_split_large_message() {
+        // data
+        byte[] body = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.UTF_8);
+        Message message = MessageBuilder.withBody(body)
+                .setMessageId("id")
+                .setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN)
+                .build();
+
+        // call
+        List<Message> chunks = MessageChunker.split(message, 10);
+
+        // assertions
+        Assertions.assertThat(chunks).hasSize(4);
+
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            MessageProperties properties = chunks.get(i).getMessageProperties();
+            Assertions.assertThat(properties.getMessageId()).isEqualTo("id." + i);
+            Assertions.assertThat(properties.getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+            Assertions.assertThat(properties.getHeaders().get(MessageChunker.MESSAGE_ID_HEADER)).isEqualTo("id");
+            Assertions.assertThat(properties.getHeaders().get(MessageChunker.INDEX_HEADER)).isEqualTo(i);
+            Assertions.assertThat(properties.getHeaders().get(MessageChunker.COUNT_HEADER)).isEqualTo(4);
+            Assertions.assertThat(properties.getHeaders().get(MessageChunker.CHECKSUM_HEADER)).isEqualTo(DigestUtils.sha256Hex(body));
+
+            byte[] chunkBody = chunks.get(i).getBody();
+            reassembled.write(chunkBody, 0, chunkBody.length);
+        }
+
+        Assertions.assertThat(chunks.get(3).getBody()).hasSize(6);
+        Assertions.assertThat(reassembled.toByteArray()).isEqualTo(body);
+    }
+
+    @Test
+    public void test_split_without_message_id() {
+        // data
+        Message message = MessageBuilder.withBody(new byte[15]).build();
+
+        // call
+        List<Message> chunks = MessageChunker.split(message, 10);
+
+        // assertions
+        Assertions.assertThat(chunks).hasSize(2);
+        Object messageId = chunks.get(0).getMessageProperties().getHeaders().get(MessageChunker.MESSAGE_ID_HEADER);
+        Assertions.assertThat(messageId).isNotNull();
+        Assertions.assertThat(chunks.get(1).getMessageProperties().getHeaders().get(MessageChunker.MESSAGE_ID_HEADER)).isEqualTo(messageId);
+    }
+
+    @Test
+    public void test_split_native_same_chunks() throws Exception {
+        // data
+        byte[] body = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.UTF_8);
+        Message message = MessageBuilder.withBody(body)
+                .setMessageId("id")
+                .setHeader("x-static", "static")
+                .build();
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                .messageId("id")
+                .headers(Collections.singletonMap("x-static", "static"))
+                .build();
+        List<byte[]> nativeBodies = new ArrayList<>();
+        List<AMQP.BasicProperties> nativeProperties = new ArrayList<>();
+
+        // call
+        List<Message> chunks = MessageChunker.split(message, 10);
+        int count = MessageChunker.split(body, properties, 10, (chunk, chunkProperties) -> {
+            nativeBodies.add(chunk);
+            nativeProperties.add(chunkProperties);
+        });
+
+        // assertions
+        Assertions.assertThat(count).isEqualTo(chunks.size());
+        for (int i = 0; i < count; i++) {
+            Assertions.assertThat(nativeBodies.get(i)).isEqualTo(chunks.get(i).getBody());
+            Assertions.assertThat(nativeProperties.get(i).getMessageId())
+                    .isEqualTo(chunks.get(i).getMessageProperties().getMessageId());
+            Assertions.assertThat(nativeProperties.get(i).getHeaders())
+                    .isEqualTo(chunks.get(i).getMessageProperties().getHeaders());
+        }
+    }
+
+    @Test
+    public void test_split_native_small_message() throws Exception {
+        // data
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder().build();
+        List<AMQP.BasicProperties> sent = new ArrayList<>();
+
+        // call
+        int count = MessageChunker.split(new byte[10], properties, 10, (chunk, chunkProperties) -> sent.add(chunkProperties));
+
+        // assertions
+        Assertions.assertThat(count).isEqualTo(1);
+        Assertions.assertThat(sent).containsExactly(properties);
+    }
+}
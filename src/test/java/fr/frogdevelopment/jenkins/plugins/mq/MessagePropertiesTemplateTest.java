@@ -0,0 +1,60 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import hudson.EnvVars;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class MessagePropertiesTemplateTest {
+
+    @Test
+    public void test_compile_empty() {
+        Assertions.assertThat(MessagePropertiesTemplate.compile(null, "", " ", null, "\n").isEmpty()).isTrue();
+    }
+
+    @Test
+    public void test_applyTo() {
+        // data
+        Map<String, String> buildParameters = new HashMap<>();
+        buildParameters.put("PARAM_1", "VALUE_1");
+
+        EnvVars env = new EnvVars();
+        env.put("JOB_NAME", "my-job");
+
+        String headers = "static=value\n" +
+                "job=${JOB_NAME}\n" +
+                "param=$PARAM_1\n" +
+                "with-equals=a=b";
+
+        MessagePropertiesTemplate template = MessagePropertiesTemplate.compile(
+                MessageDeliveryMode.NON_PERSISTENT.name(), "5", "60000", "application/json", headers);
+        MessageProperties properties = new MessageProperties();
+
+        // call
+        template.applyTo(properties, buildParameters, env);
+
+        // assertions
+        Assertions.assertThat(template.isEmpty()).isFalse();
+        Assertions.assertThat(properties.getDeliveryMode()).isEqualTo(MessageDeliveryMode.NON_PERSISTENT);
+        Assertions.assertThat(properties.getPriority()).isEqualTo(5);
+        Assertions.assertThat(properties.getExpiration()).isEqualTo("60000");
+        Assertions.assertThat(properties.getContentType()).isEqualTo("application/json");
+        Assertions.assertThat(properties.getHeaders())
+                .containsEntry("static", "value")
+                .containsEntry("job", "my-job")
+                .containsEntry("param", "VALUE_1")
+                .containsEntry("with-equals", "a=b");
+    }
+
+    @Test
+    public void test_parseHeaders_incorrect_format() {
+        Assertions.assertThatThrownBy(() -> MessagePropertiesTemplate.parseHeaders("name=value\n=empty"))
+                .isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThatThrownBy(() -> MessagePropertiesTemplate.parseHeaders("no separator"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,131 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import hudson.EnvVars;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NativePublisherTest {
+
+    @Test
+    public void test_publish() throws Exception {
+        // data
+        Channel channel = Mockito.mock(Channel.class);
+        Mockito.when(channel.isOpen()).thenReturn(true);
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.isOpen()).thenReturn(true);
+        Mockito.when(connection.createChannel()).thenReturn(channel);
+        ConnectionFactory connectionFactory = Mockito.mock(ConnectionFactory.class);
+        Mockito.when(connectionFactory.newConnection(Mockito.anyString())).thenReturn(connection);
+
+        AtomicInteger connections = new AtomicInteger();
+        NativePublisher publisher = new NativePublisher(connectionFactory,
+                new ConnectionRecovery.Gate("rabbit-test", new ConnectionRecovery.Stats()), new ReturnedMessages(),
+                connections::incrementAndGet);
+
+        // call
+        publisher.publish(false, "FD-exchange", "raw", "key=\"value\"", false, 0, null);
+        publisher.publish(false, "FD-exchange", "json", "key=\"value\"", true, 0,
+                new PublishProperties().header(TraceContext.HEADER, "00-trace-span-01"));
+
+        // assertions
+        Assertions.assertThat(connections.get()).isEqualTo(1);
+        Mockito.verify(connection, Mockito.times(1)).createChannel();
+
+        ArgumentCaptor<AMQP.BasicProperties> properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        ArgumentCaptor<byte[]> body = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(channel).basicPublish(Mockito.eq("FD-exchange"), Mockito.eq("raw"), Mockito.eq(false),
+                properties.capture(), body.capture());
+        Assertions.assertThat(new String(body.getValue(), StandardCharsets.UTF_8)).isEqualTo("key=\"value\"");
+        Assertions.assertThat(properties.getValue().getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_BYTES);
+        Assertions.assertThat(properties.getValue().getDeliveryMode()).isEqualTo(2);
+
+        Mockito.verify(channel).basicPublish(Mockito.eq("FD-exchange"), Mockito.eq("json"), Mockito.eq(false),
+                properties.capture(), body.capture());
+        Assertions.assertThat(new String(body.getValue(), StandardCharsets.UTF_8)).isEqualTo("\"key=\\\"value\\\"\"");
+        Assertions.assertThat(properties.getValue().getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+        Assertions.assertThat(properties.getValue().getHeaders())
+                .containsEntry("__TypeId__", "java.lang.String")
+                .containsKey(TraceContext.HEADER);
+    }
+
+    @Test
+    public void test_closed_channel_replaced() throws Exception {
+        // data
+        Channel closed = Mockito.mock(Channel.class);
+        Channel channel = Mockito.mock(Channel.class);
+        Mockito.when(channel.isOpen()).thenReturn(true);
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.isOpen()).thenReturn(true);
+        Mockito.when(connection.createChannel()).thenReturn(closed, channel);
+        ConnectionFactory connectionFactory = Mockito.mock(ConnectionFactory.class);
+        Mockito.when(connectionFactory.newConnection(Mockito.anyString())).thenReturn(connection);
+
+        NativePublisher publisher = new NativePublisher(connectionFactory,
+                new ConnectionRecovery.Gate("rabbit-test", new ConnectionRecovery.Stats()), new ReturnedMessages(), () -> {
+        });
+
+        // call : first channel closed by the broker after the publish
+        publisher.publish(false, "unknown-exchange", "", "message", false, 0, null);
+        int declared = publisher.declare(Topology.parse("exchange FD-exchange topic"), new HashSet<>());
+
+        // assertions
+        Assertions.assertThat(declared).isEqualTo(1);
+        Mockito.verify(connection, Mockito.times(2)).createChannel();
+        Mockito.verify(channel).exchangeDeclare("FD-exchange", "topic", true);
+    }
+
+    @Test
+    public void test_mandatory_chunked() throws Exception {
+        // data
+        Channel channel = Mockito.mock(Channel.class);
+        Mockito.when(channel.isOpen()).thenReturn(true);
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.isOpen()).thenReturn(true);
+        Mockito.when(connection.createChannel()).thenReturn(channel);
+        ConnectionFactory connectionFactory = Mockito.mock(ConnectionFactory.class);
+        Mockito.when(connectionFactory.newConnection(Mockito.anyString())).thenReturn(connection);
+
+        ReturnedMessages returnedMessages = new ReturnedMessages();
+        NativePublisher publisher = new NativePublisher(connectionFactory,
+                new ConnectionRecovery.Gate("rabbit-test", new ConnectionRecovery.Stats()), returnedMessages, () -> {
+        });
+        MessagePropertiesTemplate template = MessagePropertiesTemplate.compile("NON_PERSISTENT", "5", null, null,
+                "x-static=static");
+
+        // call
+        int messages = publisher.publish(true, "FD-exchange", "chunked", "0123456789abcdefghij-", false, 10,
+                new PublishProperties(template, Collections.emptyMap(), new EnvVars()).messageId("message-id"));
+
+        // assertions
+        Assertions.assertThat(messages).isEqualTo(3);
+        Mockito.verify(channel).addReturnListener(returnedMessages);
+
+        ArgumentCaptor<AMQP.BasicProperties> properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        ArgumentCaptor<byte[]> body = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(channel, Mockito.times(3)).basicPublish(Mockito.eq("FD-exchange"), Mockito.eq("chunked"),
+                Mockito.eq(true), properties.capture(), body.capture());
+        Assertions.assertThat(new String(body.getAllValues().get(2), StandardCharsets.UTF_8)).isEqualTo("-");
+
+        AMQP.BasicProperties last = properties.getAllValues().get(2);
+        Assertions.assertThat(last.getMessageId()).isEqualTo("message-id.2");
+        Assertions.assertThat(last.getDeliveryMode()).isEqualTo(1);
+        Assertions.assertThat(last.getPriority()).isEqualTo(5);
+        Assertions.assertThat(last.getHeaders())
+                .containsEntry("x-static", "static")
+                .containsEntry(MessageChunker.MESSAGE_ID_HEADER, "message-id")
+                .containsEntry(MessageChunker.INDEX_HEADER, 2)
+                .containsEntry(MessageChunker.COUNT_HEADER, 3);
+    }
+}
@@ -0,0 +1,116 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class PublishExecutorTest {
+
+    @Test
+    public void test_virtual_threads_detection() throws Exception {
+        // data
+        String version = System.getProperty("java.specification.version");
+        int major = Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+
+        // call
+        ThreadFactory virtualThreadFactory = PublishExecutor.virtualThreadFactory();
+
+        // assertions
+        if (major >= 21) {
+            Assertions.assertThat(virtualThreadFactory).isNotNull();
+            ExecutorService executor = PublishExecutor.newExecutor(1);
+            try {
+                Assertions.assertThat(executor.submit(() -> isVirtual(Thread.currentThread())).get(1, TimeUnit.SECONDS))
+                        .isTrue();
+            } finally {
+                executor.shutdownNow();
+            }
+        } else {
+            Assertions.assertThat(virtualThreadFactory).isNull();
+        }
+    }
+
+    @Test
+    public void test_platform_pool() throws Exception {
+        // data
+        ExecutorService pool = PublishExecutor.newPool(1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // call : one running, one queued, the third one is run by the submitter
+            Future<String> first = pool.submit(() -> {
+                running.countDown();
+                release.await();
+                return Thread.currentThread().getName();
+            });
+            running.await(1, TimeUnit.SECONDS);
+            Future<String> queued = pool.submit(() -> Thread.currentThread().getName());
+            Future<String> rejected = pool.submit(() -> Thread.currentThread().getName());
+
+            // assertions
+            Assertions.assertThat(rejected.get(1, TimeUnit.SECONDS)).isEqualTo(Thread.currentThread().getName());
+            release.countDown();
+            Assertions.assertThat(first.get(1, TimeUnit.SECONDS)).startsWith("RabbitMQ publisher");
+            Assertions.assertThat(queued.get(1, TimeUnit.SECONDS)).startsWith("RabbitMQ publisher");
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_call() throws Exception {
+        // data
+        String caller = Thread.currentThread().getName();
+
+        // call
+        String publisher = PublishExecutor.call(() -> Thread.currentThread().getName());
+
+        // assertions : run on the executor, the error of the publish is thrown as is
+        Assertions.assertThat(publisher).isNotEqualTo(caller);
+        Assertions.assertThatThrownBy(() -> PublishExecutor.call(() -> {
+            throw new IOException("broker down");
+        })).isInstanceOf(IOException.class).hasMessage("broker down");
+    }
+
+    @Test
+    public void test_start() throws Exception {
+        // data
+        CountDownLatch done = new CountDownLatch(1);
+
+        // call
+        Thread thread = PublishExecutor.start(done::countDown, "RabbitMQ test");
+
+        // assertions
+        Assertions.assertThat(done.await(1, TimeUnit.SECONDS)).isTrue();
+        Assertions.assertThat(thread.getName()).isEqualTo("RabbitMQ test");
+        Assertions.assertThat(isVirtual(thread)).isEqualTo(PublishExecutor.virtualThreadFactory() != null);
+    }
+
+    @Test
+    public void test_threadFactory_platform_threads() throws Exception {
+        // call
+        Thread thread = PublishExecutor.threadFactory().newThread(() -> {
+        });
+
+        // assertions : connections I/O never on virtual threads, even on Java 21+
+        Assertions.assertThat(thread.isDaemon()).isTrue();
+        Assertions.assertThat(isVirtual(thread)).isFalse();
+    }
+
+    private static boolean isVirtual(Thread thread) throws Exception {
+        try {
+            Method isVirtual = Thread.class.getMethod("isVirtual");
+            return (Boolean) isVirtual.invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.QueueTimes.State;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class QueueTimesTest {
+
+    @Test
+    public void test_lifecycle() {
+        // data
+        AtomicLong clock = new AtomicLong(1_000);
+        QueueTimes queueTimes = new QueueTimes(clock::get);
+
+        // call
+        queueTimes.enter(1, 1_000, State.WAITING);
+        clock.set(1_500);
+        queueTimes.leave(1, State.WAITING);
+        queueTimes.enter(1, 1_000, State.BLOCKED);
+        clock.set(3_500);
+        queueTimes.leave(1, State.BLOCKED);
+        Map<String, Object> buildable = queueTimes.enter(1, 1_000, State.BUILDABLE);
+        clock.set(4_000);
+        Map<String, Object> left = queueTimes.left(1, 1_000);
+
+        // assertions
+        Assertions.assertThat(buildable)
+                .containsEntry("timeInQueueMillis", 2_500L)
+                .containsEntry("waitingMillis", 500L)
+                .containsEntry("blockedMillis", 2_000L)
+                .containsEntry("buildableMillis", 0L);
+        // the buildable state is not left before the item leaves the queue
+        Assertions.assertThat(left)
+                .containsEntry("inQueueSince", 1_000L)
+                .containsEntry("timeInQueueMillis", 3_000L)
+                .containsEntry("waitingMillis", 500L)
+                .containsEntry("blockedMillis", 2_000L)
+                .containsEntry("buildableMillis", 500L);
+        Assertions.assertThat(queueTimes.size()).isZero();
+    }
+
+    @Test
+    public void test_left_unknown_item() {
+        // data
+        QueueTimes queueTimes = new QueueTimes(() -> 5_000);
+
+        // call
+        Map<String, Object> left = queueTimes.left(1, 1_000);
+
+        // assertions
+        Assertions.assertThat(left)
+                .containsEntry("timeInQueueMillis", 4_000L)
+                .containsEntry("waitingMillis", 0L);
+    }
+}
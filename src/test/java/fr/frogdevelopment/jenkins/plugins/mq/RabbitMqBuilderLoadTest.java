@@ -0,0 +1,225 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.Configs;
+import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.queue.QueueListener;
+import org.assertj.core.api.Assertions;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publish from many concurrent builds against an in-JVM stub broker, measuring throughput, step latency, threads and
+ * connections. The broker is stubbed under the caching connection factory and the templates of the plugin, so the
+ * connections counted are the ones the plugin really opens. The queue events of the builds are sent too, to check the
+ * queue listener does not keep the items which left the queue. Both freestyle builds and pipeline builds (a
+ * {@code node} block calling the step) are run.<br>
+ * The number of builds can be changed with the system property {@code rabbitmq.loadTest.builds} (default 20).
+ */
+public class RabbitMqBuilderLoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RabbitMqBuilderLoadTest.class);
+
+    private static final int BUILDS = Integer.getInteger("rabbitmq.loadTest.builds", 20);
+    private static final int CONCURRENCY = 10;
+    private static final String EXCHANGE = "load-test";
+    private static final String EVENTS_EXCHANGE = "load-events";
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    private StubBroker stubBroker;
+    private ThreadMXBean threadMXBean;
+    private int pluginThreadsBefore;
+
+    @Before
+    public void setUp() throws Exception {
+        stubBroker = new StubBroker(2);
+        RabbitMqFactory.mockConnectionFactory = stubBroker.getConnectionFactory();
+        RabbitMqFactory.realRabbitTemplate = true;
+        RabbitMqFactory.cachingConnectionFactoryCount.set(0);
+
+        jenkinsRule.jenkins.setNumExecutors(CONCURRENCY);
+
+        RabbitConfig rabbitConfig = new RabbitConfig("rabbit-test", "roger-rabbit", 5672, "guest", "guest", false, "/");
+        rabbitConfig.setEventsExchange(EVENTS_EXCHANGE);
+        List<RabbitConfig> rabbitConfigs = Collections.singletonList(rabbitConfig);
+        jenkinsRule.jenkins.getDescriptorByType(RabbitMqBuilder.RabbitMqDescriptor.class)
+                .setConfigs(new Configs(rabbitConfigs));
+
+        threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+        pluginThreadsBefore = countPluginThreads();
+    }
+
+    @After
+    public void tearDown() {
+        RabbitMqFactory.mockConnectionFactory = null;
+        RabbitMqFactory.realRabbitTemplate = false;
+    }
+
+    @Test
+    public void test_concurrent_freestyle_builds() throws Exception {
+        // time of the step itself, without the rest of the build
+        ConcurrentLinkedQueue<Long> stepDurations = new ConcurrentLinkedQueue<>();
+        RabbitMqBuilder builder = newBuilder();
+        List<FreeStyleProject> projects = new ArrayList<>();
+        for (int i = 0; i < BUILDS; i++) {
+            FreeStyleProject project = jenkinsRule.createFreeStyleProject("load_" + i);
+            project.getBuildersList().add(new TestBuilder() {
+                @Override
+                public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+                    long stepStart = System.nanoTime();
+                    boolean performed = builder.perform(build, launcher, listener);
+                    stepDurations.add(System.nanoTime() - stepStart);
+                    return performed;
+                }
+            });
+            projects.add(project);
+        }
+
+        int threadsBefore = threadMXBean.getThreadCount();
+        long start = System.nanoTime();
+
+        List<Future<FreeStyleBuild>> builds = new ArrayList<>();
+        for (FreeStyleProject project : projects) {
+            builds.add(project.scheduleBuild2(0));
+        }
+
+        for (Future<FreeStyleBuild> future : builds) {
+            jenkinsRule.assertBuildStatus(Result.SUCCESS, future.get(5, TimeUnit.MINUTES));
+        }
+
+        report("freestyle", start, threadsBefore, new ArrayList<>(stepDurations), BUILDS);
+    }
+
+    @Test
+    public void test_concurrent_pipeline_builds() throws Exception {
+        List<WorkflowJob> jobs = new ArrayList<>();
+        for (int i = 0; i < BUILDS; i++) {
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "load_pipeline_" + i);
+            job.setDefinition(new CpsFlowDefinition("node {\n"
+                    + "    rabbitMQPublisher rabbitName: 'rabbit-test', exchange: '" + EXCHANGE + "',\n"
+                    + "            routingKey: 'load.test', toJson: true,\n"
+                    + "            data: 'job=${JOB_NAME}\\nbuild=${BUILD_NUMBER}'\n"
+                    + "}", true));
+            jobs.add(job);
+        }
+
+        int threadsBefore = threadMXBean.getThreadCount();
+        long start = System.nanoTime();
+
+        List<Future<WorkflowRun>> builds = new ArrayList<>();
+        for (WorkflowJob job : jobs) {
+            builds.add(job.scheduleBuild2(0));
+        }
+
+        // time of the step itself, as recorded by the step
+        List<Long> stepDurations = new ArrayList<>();
+        for (Future<WorkflowRun> future : builds) {
+            WorkflowRun run = jenkinsRule.assertBuildStatus(Result.SUCCESS, future.get(5, TimeUnit.MINUTES));
+            PublishStatsAction stats = run.getAction(PublishStatsAction.class);
+            Assertions.assertThat(stats.getMessages()).isEqualTo(1);
+            double stepMillis = stats.getRenderMillis() + stats.getConnectMillis() + stats.getSendMillis();
+            stepDurations.add(TimeUnit.MICROSECONDS.toNanos(Math.round(stepMillis * 1000)));
+        }
+
+        report("pipeline", start, threadsBefore, stepDurations, BUILDS);
+    }
+
+    private RabbitMqBuilder newBuilder() {
+        RabbitMqBuilder builder = new RabbitMqBuilder("rabbit-test", EXCHANGE, "job=${JOB_NAME}\nbuild=${BUILD_NUMBER}");
+        builder.setRoutingKey("load.test");
+        builder.setToJson(true);
+        return builder;
+    }
+
+    private void report(String type, long start, int threadsBefore, List<Long> stepDurations, int queuedBuilds)
+            throws Exception {
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        int messages = stubBroker.getMessageCount(EXCHANGE);
+
+        // waiting, buildable and left at least for each build scheduled, sent in background
+        int events = awaitMessages(EVENTS_EXCHANGE, 3 * queuedBuilds);
+        int queueItems = QueueListener.all().get(RabbitMqQueueListener.class).getQueueTimes().size();
+        int pluginThreads = countPluginThreads();
+
+        double[] steps = toSortedMillis(stepDurations);
+        double[] sends = toSortedMillis(stubBroker.getPublishNanos());
+
+        LOGGER.info("Load test {} : {} messages in {} s ({} msg/s)", type, messages,
+                String.format("%.2f", elapsedSeconds), String.format("%.1f", messages / elapsedSeconds));
+        LOGGER.info("Step latency (ms) : p50={} p95={} p99={} max={}", ConnectionProbe.percentile(steps, 50),
+                ConnectionProbe.percentile(steps, 95), ConnectionProbe.percentile(steps, 99), steps[steps.length - 1]);
+        LOGGER.info("Send latency (ms) : p50={} p95={} p99={} max={}", ConnectionProbe.percentile(sends, 50),
+                ConnectionProbe.percentile(sends, 95), ConnectionProbe.percentile(sends, 99), sends[sends.length - 1]);
+        LOGGER.info("Threads : before={} peak={} after={} plugin={}", threadsBefore, threadMXBean.getPeakThreadCount(),
+                threadMXBean.getThreadCount(), pluginThreads);
+        LOGGER.info("Connections : factories={} connections={} channels={}",
+                RabbitMqFactory.cachingConnectionFactoryCount.get(), stubBroker.getConnectionCount(),
+                stubBroker.getChannelCount());
+        LOGGER.info("Queue events : sent={} items still tracked={}", events, queueItems);
+
+        Assertions.assertThat(messages).isEqualTo(BUILDS);
+        Assertions.assertThat(events).isGreaterThanOrEqualTo(3 * queuedBuilds);
+        // one connection for the configuration, shared by the steps and the events whatever the number of builds
+        Assertions.assertThat(RabbitMqFactory.cachingConnectionFactoryCount.get()).isEqualTo(1);
+        Assertions.assertThat(stubBroker.getConnectionCount()).isEqualTo(1);
+        Assertions.assertThat(stubBroker.getChannelCount()).isLessThanOrEqualTo(CONCURRENCY + 1);
+        // the event dispatcher and the bounded publish pool (none with virtual threads), no thread per build
+        Assertions.assertThat(pluginThreads - pluginThreadsBefore).isLessThanOrEqualTo(1 + PublishExecutor.THREADS);
+        // all the items left the queue
+        Assertions.assertThat(queueItems).isZero();
+    }
+
+    private int awaitMessages(String exchange, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (stubBroker.getMessageCount(exchange) < expected && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        return stubBroker.getMessageCount(exchange);
+    }
+
+    private static int countPluginThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("RabbitMQ")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static double[] toSortedMillis(List<Long> nanos) {
+        double[] millis = new double[nanos.size()];
+        for (int i = 0; i < millis.length; i++) {
+            millis[i] = nanos.get(i) / 1e6;
+        }
+        Arrays.sort(millis);
+        return millis;
+    }
+}
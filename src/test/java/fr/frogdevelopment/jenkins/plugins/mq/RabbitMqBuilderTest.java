@@ -1,13 +1,21 @@
 package fr.frogdevelopment.jenkins.plugins.mq;
 
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.Configs;
 import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitConfig.RabbitConfigDescriptor;
 import fr.frogdevelopment.jenkins.plugins.mq.RabbitMqBuilder.RabbitMqDescriptor;
+import hudson.EnvVars;
+import hudson.FilePath;
 import hudson.model.*;
+import hudson.slaves.DumbSlave;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import hudson.util.StreamTaskListener;
+import jenkins.security.MasterToSlaveCallable;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.apache.commons.io.FileUtils;
@@ -18,11 +26,22 @@ import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.WithoutJenkins;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
@@ -171,12 +190,13 @@ public class RabbitMqBuilderTest {
                 "Initialisation Rabbit-MQ",
                 "Building message",
                 "Sending message",
-                "Connection destroyed",
+                "Message sent",
                 "Finished: SUCCESS");
 
         ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
 
-        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).convertAndSend(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture());
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).convertAndSend(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture(),
+                Mockito.any(MessagePostProcessor.class));
         String value = captor.getValue();
         Assertions.assertThat(value).isNotNull();
         Assertions.assertThat(value).isEqualTo("{\"key1\":\"value_test\"}");
@@ -219,14 +239,319 @@ public class RabbitMqBuilderTest {
                 "Initialisation Rabbit-MQ",
                 "Building message",
                 "Sending message",
-                "Connection destroyed",
+                "Message sent",
                 "Finished: SUCCESS");
 
         ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
-        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).convertAndSend(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture());
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).convertAndSend(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture(),
+                Mockito.any(MessagePostProcessor.class));
         String value = captor.getValue();
         Assertions.assertThat(value).isNotNull();
         Assertions.assertThat(value).isEqualTo("key_1=\"value_test\"");
+
+        PublishStatsAction stats = build.getAction(PublishStatsAction.class);
+        Assertions.assertThat(stats).isNotNull();
+        Assertions.assertThat(stats.getSteps()).hasSize(1);
+        Assertions.assertThat(stats.getSteps().get(0).getExchange()).isEqualTo(exchange);
+        Assertions.assertThat(stats.getSteps().get(0).isFromAgent()).isFalse();
+        Assertions.assertThat(stats.getMessages()).isEqualTo(1);
+        Assertions.assertThat(stats.getBytes()).isEqualTo(value.length());
+
+        PublishTrendAction trend = project.getAction(PublishTrendAction.class);
+        Assertions.assertThat(trend).isNotNull();
+        Assertions.assertThat(trend.getBuilds()).hasSize(1);
+        Assertions.assertThat(trend.getBuilds().get(0).getNumber()).isEqualTo(build.getNumber());
+    }
+
+    @Test
+    public void test_with_payload() throws IOException, ExecutionException, InterruptedException {
+        RabbitMqFactory.mockRabbitTemplate = null; // to use a new one
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("status", "${NOT_EXPANDED}");
+        payload.put("count", 2);
+        payload.put("tags", Arrays.asList("a", "b"));
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "ignored=true");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setToJson(true);
+        rabbitMqBuilder.setPayload(payload);
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILD
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // GET OUTPUT
+        String console = FileUtils.readFileToString(build.getLogFile());
+
+        // ASSERTIONS
+        Assertions.assertThat(console).containsSubsequence(
+                "Building message",
+                "Sending payload as JSON:",
+                "Message sent",
+                "Finished: SUCCESS");
+
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).convertAndSend(Mockito.eq(exchange), Mockito.eq(routingKey),
+                Mockito.eq("{\"status\":\"${NOT_EXPANDED}\",\"count\":2,\"tags\":[\"a\",\"b\"]}"),
+                Mockito.any(MessagePostProcessor.class));
+    }
+
+    @Test
+    public void test_with_idempotency_key() throws IOException, ExecutionException, InterruptedException {
+        RabbitMqFactory.mockRabbitTemplate = null; // to use a new one
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "message");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setIdempotencyKey("${JOB_NAME}-key");
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILDS
+        project.scheduleBuild2(0).get();
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // GET OUTPUT
+        String console = FileUtils.readFileToString(build.getLogFile());
+
+        // ASSERTIONS
+        Assertions.assertThat(console).containsSubsequence(
+                "Initialisation Rabbit-MQ",
+                "Message already sent, skipping it (idempotency key : Unit_Test-key)",
+                "Finished: SUCCESS");
+
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate, Mockito.times(1)).convertAndSend(Mockito.eq(exchange),
+                Mockito.eq(routingKey), Mockito.eq("message"), Mockito.any(MessagePostProcessor.class));
+    }
+
+    @Test
+    public void test_with_idempotency_key_simple_build_step() throws Exception {
+        RabbitMqFactory.mockRabbitTemplate = null; // to use a new one
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "message");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setIdempotencyKey("${JOB_NAME}-${BUILD_NUMBER}");
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        FreeStyleBuild build1 = jenkinsRule.buildAndAssertSuccess(project);
+        FreeStyleBuild build2 = jenkinsRule.buildAndAssertSuccess(project);
+        FilePath workspace = new FilePath(jenkinsRule.jenkins.getRootPath().child("ws"));
+
+        // CALL, as a pipeline would
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StreamTaskListener listener = new StreamTaskListener(output, StandardCharsets.UTF_8);
+        rabbitMqBuilder.perform(build1, workspace, jenkinsRule.createLocalLauncher(), listener);
+        rabbitMqBuilder.perform(build2, workspace, jenkinsRule.createLocalLauncher(), listener);
+
+        // ASSERTIONS : each build has its own key
+        Assertions.assertThat(output.toString(StandardCharsets.UTF_8.name())).doesNotContain("Message already sent");
+
+        ArgumentCaptor<MessagePostProcessor> captor = ArgumentCaptor.forClass(MessagePostProcessor.class);
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate, Mockito.times(2)).convertAndSend(Mockito.eq(exchange),
+                Mockito.eq(routingKey), Mockito.eq("message"), captor.capture());
+
+        Message message = captor.getAllValues().get(0).postProcessMessage(new Message(new byte[0], new MessageProperties()));
+        Assertions.assertThat(message.getMessageProperties().getMessageId()).isEqualTo("Unit_Test-1");
+        message = captor.getAllValues().get(1).postProcessMessage(new Message(new byte[0], new MessageProperties()));
+        Assertions.assertThat(message.getMessageProperties().getMessageId()).isEqualTo("Unit_Test-2");
+    }
+
+    @Test
+    public void test_agent_publisher() throws Exception {
+        RabbitMqFactory.mockRabbitTemplate = null; // to use a new one
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "field_1=${PARAM}");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setToJson(true);
+        rabbitMqBuilder.setPublishFromAgent(true);
+
+        Map<String, String> buildParameters = new HashMap<>();
+        buildParameters.put("PARAM", "value");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AgentPublisher agentPublisher = new AgentPublisher(rabbitMqBuilder, RABBIT_CONFIG, buildParameters,
+                new EnvVars(), null, null, new StreamTaskListener(output, StandardCharsets.UTF_8));
+
+        // CALL, as it would be on the agent, twice
+        agentPublisher.call();
+        CachingConnectionFactory factory = AgentPublisher.getFactory("rabbit-test");
+        agentPublisher.call();
+
+        // ASSERTIONS
+        Assertions.assertThat(output.toString(StandardCharsets.UTF_8.name())).containsSubsequence(
+                "Building message",
+                "Sending message as JSON:",
+                "{\"field1\":\"value\"}",
+                "Sending message");
+
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate, Mockito.times(2))
+                .convertAndSend(exchange, routingKey, "{\"field1\":\"value\"}");
+        // connection kept on the agent
+        Assertions.assertThat(factory).isNotNull();
+        Assertions.assertThat(AgentPublisher.getFactory("rabbit-test")).isSameAs(factory);
+    }
+
+    @Test
+    public void test_publish_from_agent() throws Exception {
+        RabbitMqFactory.mockRabbitTemplate = null; // to use a new one
+
+        DumbSlave agent = jenkinsRule.createOnlineSlave();
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+        project.setAssignedNode(agent);
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", "FD-exchange", "build=${BUILD_NUMBER}");
+        rabbitMqBuilder.setRoutingKey("frogdevelopment.test");
+        rabbitMqBuilder.setPublishFromAgent(true);
+        RabbitMqDescriptor descriptor = rabbitMqBuilder.getDescriptor();
+        descriptor.setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILDS, the configuration changing in between
+        FreeStyleBuild build1 = jenkinsRule.buildAndAssertSuccess(project);
+
+        ArrayList<RabbitConfig> changedConfigs = new ArrayList<>();
+        changedConfigs.add(new RabbitConfig("rabbit-test", "other-rabbit", 5672, "guest", "guest", false, "/"));
+        descriptor.setConfigs(new Configs(changedConfigs));
+
+        FreeStyleBuild build2 = jenkinsRule.buildAndAssertSuccess(project);
+
+        // ASSERTIONS
+        for (FreeStyleBuild build : Arrays.asList(build1, build2)) {
+            Assertions.assertThat(FileUtils.readFileToString(build.getLogFile())).containsSubsequence(
+                    "Publishing from the agent",
+                    "Building message",
+                    "Sending raw message:",
+                    "build=" + build.getNumber(),
+                    "Message sent");
+        }
+        // the connection of the former configuration is closed on the agent
+        Assertions.assertThat(agent.getChannel().call(new AgentConnectionCount())).isEqualTo(1);
+    }
+
+    private static class AgentConnectionCount extends MasterToSlaveCallable<Integer, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Integer call() {
+            return AgentPublisher.getConnectionCount();
+        }
+    }
+
+    @Test
+    public void test_with_message_properties() throws IOException, ExecutionException, InterruptedException {
+        RabbitMqFactory.mockRabbitTemplate = null; // to use a new one
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "message");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setConversion(false);
+        rabbitMqBuilder.setDeliveryMode(MessageDeliveryMode.NON_PERSISTENT.name());
+        rabbitMqBuilder.setExpiration("1000");
+        rabbitMqBuilder.setHeaders("job=${JOB_NAME}");
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILD
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // ASSERTIONS
+        jenkinsRule.assertBuildStatusSuccess(build);
+
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).send(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture());
+        Message message = captor.getValue();
+        Assertions.assertThat(message.getBody()).isEqualTo("message".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertThat(message.getMessageProperties().getDeliveryMode()).isEqualTo(MessageDeliveryMode.NON_PERSISTENT);
+        Assertions.assertThat(message.getMessageProperties().getExpiration()).isEqualTo("1000");
+        Assertions.assertThat(message.getMessageProperties().getHeaders()).containsEntry("job", "Unit_Test");
+        Assertions.assertThat((String) message.getMessageProperties().getHeaders().get(TraceContext.HEADER))
+                .matches("00-[0-9a-f]{32}-[0-9a-f]{16}-01")
+                .startsWith("00-" + TraceContext.forRun(build).getTraceId() + "-");
+    }
+
+    @Test
+    public void test_with_traceparent_parameter() throws IOException, ExecutionException, InterruptedException {
+        RabbitMqFactory.mockRabbitTemplate = null; // to use a new one
+
+        String exchange = "FD-exchange";
+        String routingKey = "frogdevelopment.test";
+        String traceparent = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("Unit_Test");
+        project.addProperty(new ParametersDefinitionProperty(
+                new StringParameterDefinition(TraceContext.VARIABLE, "", "")));
+
+        // RABBIT CONFIG
+        ArrayList<RabbitConfig> rabbitConfigs = new ArrayList<>();
+        rabbitConfigs.add(RABBIT_CONFIG);
+
+        // the step does not reference the parameter
+        RabbitMqBuilder rabbitMqBuilder = new RabbitMqBuilder("rabbit-test", exchange, "message");
+        rabbitMqBuilder.setRoutingKey(routingKey);
+        rabbitMqBuilder.setConversion(false);
+        rabbitMqBuilder.getDescriptor().setConfigs(new Configs(rabbitConfigs));
+
+        project.getBuildersList().add(rabbitMqBuilder);
+
+        // LAUNCH BUILD
+        FreeStyleBuild build = project.scheduleBuild2(0, new Cause.UserIdCause(),
+                new ParametersAction(new StringParameterValue(TraceContext.VARIABLE, traceparent))).get();
+
+        // ASSERTIONS : same trace, new span
+        jenkinsRule.assertBuildStatusSuccess(build);
+
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(RabbitMqFactory.mockRabbitTemplate).send(Mockito.eq(exchange), Mockito.eq(routingKey), captor.capture());
+        Assertions.assertThat((String) captor.getValue().getMessageProperties().getHeaders().get(TraceContext.HEADER))
+                .matches("00-4bf92f3577b34da6a3ce929d0e0e4736-[0-9a-f]{16}-01")
+                .isNotEqualTo(traceparent);
     }
 
     @Test
@@ -317,6 +642,135 @@ public class RabbitMqBuilderTest {
         Assertions.assertThat(rabbitConfig.getVirtualHost()).isEqualTo(rabbitConfigJSON.getString("virtualHost"));
     }
 
+    @Test
+    public void test_RabbitConfig_credentials() throws IOException {
+        // data
+        UsernamePasswordCredentialsImpl credentials = new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL,
+                "rabbit-credentials", null, "credentials_user", "credentials_password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(credentials);
+        SystemCredentialsProvider.getInstance().save();
+
+        RabbitConfig rabbitConfig = new RabbitConfig("rabbit-test", "roger-rabbit", 5672, "guest", "guest", false, "/");
+        rabbitConfig.setCredentialsId("rabbit-credentials");
+
+        // call
+        CachedCredentials resolved = rabbitConfig.getCredentials();
+
+        // assertions
+        Assertions.assertThat(resolved.getUsername()).isEqualTo("credentials_user");
+        Assertions.assertThat(resolved.getPassword()).isEqualTo("credentials_password");
+        Assertions.assertThat(rabbitConfig.getCredentials()).isSameAs(resolved);
+
+        // rotate the password
+        SystemCredentialsProvider.getInstance().getCredentials().set(0, new UsernamePasswordCredentialsImpl(
+                CredentialsScope.GLOBAL, "rabbit-credentials", null, "credentials_user", "rotated_password"));
+        SystemCredentialsProvider.getInstance().save();
+
+        Assertions.assertThat(resolved.isValid()).isFalse();
+        Assertions.assertThat(rabbitConfig.getDecodedPassword()).isEqualTo("rotated_password");
+    }
+
+    @Test
+    public void test_ConnectionPool_retain() throws GeneralSecurityException {
+        // data
+        ConnectionPool connections = new ConnectionPool();
+        RabbitConfig unchanged = new RabbitConfig("unchanged", "roger-rabbit", 5672, "guest", "guest", false, "/");
+        RabbitConfig changed = new RabbitConfig("changed", "roger-rabbit", 5672, "guest", "guest", false, "/");
+        RabbitConfig changedNewHost = new RabbitConfig("changed", "jessica-rabbit", 5672, "guest", "guest", false, "/");
+
+        ConnectionPool.PooledConnection unchangedConnection = connections.get(unchanged);
+        ConnectionPool.PooledConnection inFlight = connections.acquire(changed);
+        CachingConnectionFactory inFlightFactory = lastCachingConnectionFactory();
+
+        // call
+        connections.retain(Arrays.asList(
+                new RabbitConfig("unchanged", "roger-rabbit", 5672, "guest", "guest", false, "/"),
+                changedNewHost));
+
+        // assertions
+        Assertions.assertThat(connections.get(unchanged)).isSameAs(unchangedConnection);
+        ConnectionPool.PooledConnection newConnection = connections.acquire(changedNewHost);
+        CachingConnectionFactory newFactory = lastCachingConnectionFactory();
+        Assertions.assertThat(newConnection).isNotSameAs(inFlight);
+
+        // retired : closed once, after its publish
+        Mockito.verify(inFlightFactory, Mockito.never()).destroy();
+        inFlight.release();
+        Mockito.verify(inFlightFactory, Mockito.times(1)).destroy();
+
+        // call : cleared while publishing
+        connections.clear();
+
+        // assertions
+        Mockito.verify(newFactory, Mockito.never()).destroy();
+        newConnection.release();
+        Mockito.verify(newFactory, Mockito.times(1)).destroy();
+        Mockito.verify(inFlightFactory, Mockito.times(1)).destroy();
+    }
+
+    private static CachingConnectionFactory lastCachingConnectionFactory() {
+        List<CachingConnectionFactory> factories = RabbitMqFactory.cachingConnectionFactories;
+        return factories.get(factories.size() - 1);
+    }
+
+    @Test
+    public void test_ConnectionPool_native_client() throws GeneralSecurityException {
+        // data
+        ConnectionPool connections = new ConnectionPool();
+        RabbitConfig rabbitConfig = new RabbitConfig("native", "roger-rabbit", 5672, "guest", "guest", false, "/");
+        rabbitConfig.setNativeClient(true);
+        int cachingConnectionFactories = RabbitMqFactory.cachingConnectionFactoryCount.get();
+
+        // call
+        ConnectionPool.PooledConnection connection = connections.acquire(rabbitConfig);
+        connection.release();
+        connections.clear();
+
+        // assertions : no connection of Spring AMQP next to the native one
+        Assertions.assertThat(RabbitMqFactory.cachingConnectionFactoryCount.get()).isEqualTo(cachingConnectionFactories);
+    }
+
+    @Test
+    public void test_ConnectionPool_several_connections() throws GeneralSecurityException {
+        // data
+        ConnectionPool connections = new ConnectionPool();
+        RabbitConfig rabbitConfig = new RabbitConfig("busy", "roger-rabbit", 5672, "guest", "guest", false, "/");
+        rabbitConfig.setConnectionCount(3);
+
+        // call : round-robin
+        ConnectionPool.PooledConnection first = connections.get(rabbitConfig);
+        ConnectionPool.PooledConnection second = connections.get(rabbitConfig);
+        ConnectionPool.PooledConnection third = connections.get(rabbitConfig);
+
+        // assertions
+        Assertions.assertThat(Arrays.asList(first, second, third)).doesNotHaveDuplicates();
+        Assertions.assertThat(connections.get(rabbitConfig)).isSameAs(first);
+
+        // call : least loaded
+        rabbitConfig.setConnectionSelection(ConnectionPool.Selection.LEAST_LOADED.name());
+        ConnectionPool.PooledConnection busy1 = connections.acquire(rabbitConfig);
+        ConnectionPool.PooledConnection busy2 = connections.acquire(rabbitConfig);
+        ConnectionPool.PooledConnection idle = connections.get(rabbitConfig);
+
+        // assertions
+        Assertions.assertThat(Arrays.asList(busy1, busy2, idle)).doesNotHaveDuplicates();
+
+        busy1.release();
+        busy2.release();
+    }
+
+    @Test
+    public void test_RabbitConfig_unknown_credentials() {
+        // data
+        RabbitConfig rabbitConfig = new RabbitConfig("rabbit-test", "roger-rabbit", 5672, "guest", "guest", false, "/");
+        rabbitConfig.setCredentialsId("unknown");
+
+        // call & assertions
+        Assertions.assertThatThrownBy(rabbitConfig::getCredentials)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Unknown credentials : unknown");
+    }
+
     @Test
     @WithoutJenkins
     public void test_Configs_fromJSON_0_config() {
@@ -436,7 +890,7 @@ public class RabbitMqBuilderTest {
                 host,
                 host,
                 Integer.parseInt(port),
-                false,
+                null,
                 virtualHost
         );
         Connection connection = Mockito.mock(Connection.class);
@@ -446,7 +900,8 @@ public class RabbitMqBuilderTest {
         Mockito.doReturn(true).when(connection).isOpen();
 
         // call
-        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, isSecure,virtualHost);
+        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, null, isSecure, virtualHost,
+                null, null, null, null, null, null);
 
         // assertions
         Assertions.assertThat(formValidation.kind).isEqualTo(FormValidation.Kind.OK);
@@ -470,7 +925,7 @@ public class RabbitMqBuilderTest {
                 host,
                 host,
                 Integer.parseInt(port),
-                Boolean.parseBoolean(isSecure),
+                null,
                 virtualHost
         );
         Connection connection = Mockito.mock(Connection.class);
@@ -480,7 +935,8 @@ public class RabbitMqBuilderTest {
         Mockito.doReturn(false).when(connection).isOpen();
 
         // call
-        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, isSecure, virtualHost);
+        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, null, isSecure, virtualHost,
+                null, null, null, null, null, null);
 
         // assertions
         Assertions.assertThat(formValidation.kind).isEqualTo(FormValidation.Kind.ERROR);
@@ -506,7 +962,7 @@ public class RabbitMqBuilderTest {
                 host,
                 host,
                 Integer.parseInt(port),
-                Boolean.parseBoolean(isSecure),
+                null,
                 virtualHost
         );
 
@@ -514,7 +970,8 @@ public class RabbitMqBuilderTest {
         Mockito.doThrow(exception_for_text).when(mockConnectionFactory).newConnection();
 
         // call
-        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, isSecure,virtualHost);
+        FormValidation formValidation = rabbitConfigDescriptor.doTestConnection(host, port, username, password, null, isSecure, virtualHost,
+                null, null, null, null, null, null);
 
         // assertions
         Assertions.assertThat(formValidation.kind).isEqualTo(FormValidation.Kind.ERROR);
@@ -2,11 +2,15 @@ package fr.frogdevelopment.jenkins.plugins.mq;
 
 import com.rabbitmq.client.ConnectionFactory;
 import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 
 class RabbitMqFactory {
 
@@ -14,9 +18,12 @@ class RabbitMqFactory {
 
     static ConnectionFactory mockConnectionFactory; // keep it, for test use
     static RabbitTemplate mockRabbitTemplate;
+    static boolean realRabbitTemplate; // templates of the plugin on the mocked ConnectionFactory, for test use
+    static final AtomicInteger cachingConnectionFactoryCount = new AtomicInteger();
+    static final List<CachingConnectionFactory> cachingConnectionFactories = new CopyOnWriteArrayList<>(); // spied, for test use
 
     static ConnectionFactory createConnectionFactory(String username, String password, String host, int port,
-                                                     boolean isSecure,String virtualHost) throws GeneralSecurityException {
+                                                     TlsContext tlsContext, String virtualHost) {
         if (mockConnectionFactory == null) {
             LOGGER.info("Mocking ConnectionFactory");
             mockConnectionFactory = Mockito.mock(ConnectionFactory.class);
@@ -28,6 +35,12 @@ class RabbitMqFactory {
     }
 
     static RabbitTemplate getRabbitTemplate(CachingConnectionFactory factory) {
+        if (realRabbitTemplate) {
+            RabbitTemplate rabbitTemplate = new RabbitTemplate(factory);
+            rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
+            return rabbitTemplate;
+        }
+
         if (mockRabbitTemplate == null) {
             LOGGER.info("Mocking RabbitTemplate");
             mockRabbitTemplate = Mockito.mock(RabbitTemplate.class);
@@ -40,15 +53,22 @@ class RabbitMqFactory {
 
     static CachingConnectionFactory getCachingConnectionFactory(RabbitMqBuilder.RabbitConfig rabbitConfig)
             throws GeneralSecurityException {
-        ConnectionFactory connectionFactory = createConnectionFactory(
-                rabbitConfig.getUsername(),
-                rabbitConfig.getDecodedPassword(),
+        cachingConnectionFactoryCount.incrementAndGet();
+        CachingConnectionFactory cachingConnectionFactory = Mockito.spy(new CachingConnectionFactory(getConnectionFactory(rabbitConfig)));
+        cachingConnectionFactories.add(cachingConnectionFactory);
+        return cachingConnectionFactory;
+    }
+
+    static ConnectionFactory getConnectionFactory(RabbitMqBuilder.RabbitConfig rabbitConfig)
+            throws GeneralSecurityException {
+        CachedCredentials credentials = rabbitConfig.getCredentials();
+        return createConnectionFactory(
+                credentials.getUsername(),
+                credentials.getPassword(),
                 rabbitConfig.getHost(),
                 rabbitConfig.getPort(),
-                rabbitConfig.getIsSecure(),
+                rabbitConfig.getTlsContext(),
                 rabbitConfig.getVirtualHost()
         );
-
-        return new CachingConnectionFactory(connectionFactory);
     }
 }
@@ -0,0 +1,89 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.LongStringHelper;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+
+import java.util.Collections;
+
+public class ReturnedMessagesTest {
+
+    private final ReturnedMessages returnedMessages = new ReturnedMessages();
+
+    @Test
+    public void test_returned_message_while_building() {
+        // data
+        Run<?, ?> run = Mockito.mock(Run.class);
+        Mockito.doReturn(true).when(run).isBuilding();
+
+        String publishId = returnedMessages.register(run, TaskListener.NULL, Result.UNSTABLE);
+        Message message = MessageBuilder.withBody(new byte[0])
+                .setHeader(ReturnedMessages.PUBLISH_ID_HEADER, publishId)
+                .build();
+
+        // call
+        returnedMessages.returnedMessage(message, 312, "NO_ROUTE", "exchange", "routing.key");
+
+        // assertions
+        Mockito.verify(run).setResult(Result.UNSTABLE);
+        Assertions.assertThat(returnedMessages.getUnroutableCounts()).containsEntry("exchange", 1L);
+    }
+
+    @Test
+    public void test_returned_message_native_client() {
+        // data
+        Run<?, ?> run = Mockito.mock(Run.class);
+        Mockito.doReturn(true).when(run).isBuilding();
+
+        String publishId = returnedMessages.register(run, TaskListener.NULL, Result.UNSTABLE);
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                .headers(Collections.singletonMap(ReturnedMessages.PUBLISH_ID_HEADER, LongStringHelper.asLongString(publishId)))
+                .build();
+
+        // call
+        returnedMessages.handleReturn(312, "NO_ROUTE", "exchange", "routing.key", properties, new byte[0]);
+
+        // assertions
+        Mockito.verify(run).setResult(Result.UNSTABLE);
+        Assertions.assertThat(returnedMessages.getUnroutableCounts()).containsEntry("exchange", 1L);
+    }
+
+    @Test
+    public void test_returned_message_build_finished() {
+        // data
+        Run<?, ?> run = Mockito.mock(Run.class);
+        Mockito.doReturn(false).when(run).isBuilding();
+
+        String publishId = returnedMessages.register(run, TaskListener.NULL, Result.FAILURE);
+        Message message = MessageBuilder.withBody(new byte[0])
+                .setHeader(ReturnedMessages.PUBLISH_ID_HEADER, publishId)
+                .build();
+
+        // call
+        returnedMessages.returnedMessage(message, 312, "NO_ROUTE", "exchange", "routing.key");
+
+        // assertions
+        Mockito.verify(run, Mockito.never()).setResult(Mockito.any());
+        Assertions.assertThat(returnedMessages.getUnroutableCounts()).containsEntry("exchange", 1L);
+    }
+
+    @Test
+    public void test_returned_message_unknown() {
+        // call
+        returnedMessages.returnedMessage(MessageBuilder.withBody(new byte[0]).build(), 312, "NO_ROUTE", "exchange", "key");
+        returnedMessages.returnedMessage(MessageBuilder.withBody(new byte[0]).build(), 312, "NO_ROUTE", "exchange", "key");
+        returnedMessages.returnedMessage(MessageBuilder.withBody(new byte[0]).build(), 312, "NO_ROUTE", "other", "key");
+
+        // assertions
+        Assertions.assertThat(returnedMessages.getUnroutableCounts())
+                .containsEntry("exchange", 2L)
+                .containsEntry("other", 1L);
+    }
+}
@@ -0,0 +1,91 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-JVM stand-in of a broker, at the level of the Java client : its connection factory counts the connections and
+ * channels opened, and its channels record the messages published, simulating the network latency.<br>
+ * Everything above (caching connection factory, templates, native publisher) is the code of the plugin.
+ */
+class StubBroker {
+
+    private final long latencyMillis;
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger channelCount = new AtomicInteger();
+    private final Map<String, AtomicInteger> messagesPerExchange = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> publishNanos = new ConcurrentLinkedQueue<>();
+
+    private final ConnectionFactory connectionFactory;
+
+    StubBroker(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        // all the overloads of newConnection, whatever the executor and addresses given by the caller
+        this.connectionFactory = Mockito.mock(ConnectionFactory.class, invocation ->
+                "newConnection".equals(invocation.getMethod().getName())
+                        ? newConnection()
+                        : Answers.RETURNS_DEFAULTS.answer(invocation));
+    }
+
+    ConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    int getChannelCount() {
+        return channelCount.get();
+    }
+
+    int getMessageCount(String exchange) {
+        AtomicInteger count = messagesPerExchange.get(exchange);
+        return count != null ? count.get() : 0;
+    }
+
+    List<Long> getPublishNanos() {
+        return new ArrayList<>(publishNanos);
+    }
+
+    private Connection newConnection() throws Exception {
+        connectionCount.incrementAndGet();
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.isOpen()).thenReturn(true);
+        Mockito.when(connection.createChannel()).thenAnswer(invocation -> newChannel(connection));
+        return connection;
+    }
+
+    private Channel newChannel(Connection connection) {
+        channelCount.incrementAndGet();
+        Channel channel = Mockito.mock(Channel.class, invocation ->
+                "basicPublish".equals(invocation.getMethod().getName())
+                        ? publish(invocation)
+                        : Answers.RETURNS_DEFAULTS.answer(invocation));
+        Mockito.doReturn(true).when(channel).isOpen();
+        Mockito.doReturn(connection).when(channel).getConnection();
+        return channel;
+    }
+
+    private Object publish(InvocationOnMock invocation) throws InterruptedException {
+        long start = System.nanoTime();
+        TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        String exchange = invocation.getArgument(0);
+        messagesPerExchange.computeIfAbsent(exchange, e -> new AtomicInteger()).incrementAndGet();
+        publishNanos.add(System.nanoTime() - start);
+        return null;
+    }
+}
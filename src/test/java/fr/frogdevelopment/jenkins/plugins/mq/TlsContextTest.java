@@ -0,0 +1,96 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.ConnectionFactory;
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+public class TlsContextTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createTrustStore(String password) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(null, null);
+
+        File file = folder.newFile("truststore.jks");
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            keyStore.store(outputStream, password.toCharArray());
+        }
+        return file;
+    }
+
+    @Test
+    public void test_applyTo() throws Exception {
+        // data
+        File trustStore = createTrustStore("changeit");
+        ConnectionFactory connectionFactory = new ConnectionFactory();
+
+        // call
+        TlsContext.create(trustStore.getPath(), "changeit", null, null, "TLSv1.2", null).applyTo(connectionFactory);
+
+        // assertions
+        Assertions.assertThat(connectionFactory.isSSL()).isTrue();
+
+        try (SSLSocket socket = (SSLSocket) connectionFactory.getSocketFactory().createSocket()) {
+            connectionFactory.getSocketConfigurator().configure(socket);
+            Assertions.assertThat(socket.getEnabledProtocols()).containsExactly("TLSv1.2");
+            Assertions.assertThat(socket.getTcpNoDelay()).isTrue();
+        }
+    }
+
+    @Test
+    public void test_defaultContext_is_shared() throws GeneralSecurityException {
+        // call
+        TlsContext context = TlsContext.defaultContext();
+
+        // assertions
+        Assertions.assertThat(TlsContext.defaultContext()).isSameAs(context);
+
+        ConnectionFactory connectionFactory = new ConnectionFactory();
+        context.applyTo(connectionFactory);
+        Assertions.assertThat(connectionFactory.getSocketFactory()).isInstanceOf(SSLSocketFactory.class);
+    }
+
+    @Test
+    public void test_of() throws Exception {
+        // data
+        File trustStore = createTrustStore("changeit");
+
+        // call & assertions : the default context only without settings
+        Assertions.assertThat(TlsContext.of(null, null, null, null, null, null)).isSameAs(TlsContext.defaultContext());
+        Assertions.assertThat(TlsContext.of(trustStore.getPath(), "changeit", null, null, null, null))
+                .isNotSameAs(TlsContext.defaultContext());
+        Assertions.assertThat(TlsContext.of(null, null, null, null, "TLSv1.2", null))
+                .isNotSameAs(TlsContext.defaultContext());
+    }
+
+    @Test
+    public void test_wrong_password() throws Exception {
+        // data
+        File trustStore = createTrustStore("changeit");
+
+        // call & assertions
+        Assertions.assertThatThrownBy(() -> TlsContext.create(trustStore.getPath(), "wrong", null, null, null, null))
+                .isInstanceOf(GeneralSecurityException.class)
+                .hasMessageStartingWith("Unable to load " + trustStore.getPath());
+    }
+
+    @Test
+    public void test_missing_store() {
+        // call & assertions
+        Assertions.assertThatThrownBy(() -> TlsContext.create("missing.jks", null, null, null, null, null))
+                .isInstanceOf(GeneralSecurityException.class)
+                .hasMessageStartingWith("Unable to load missing.jks");
+    }
+}
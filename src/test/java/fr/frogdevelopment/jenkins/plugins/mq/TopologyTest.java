@@ -0,0 +1,67 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import com.rabbitmq.client.Channel;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.amqp.rabbit.core.ChannelCallback;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class TopologyTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_declareMissing() throws Exception {
+        // data
+        Channel channel = Mockito.mock(Channel.class);
+        RabbitTemplate template = Mockito.mock(RabbitTemplate.class);
+        Mockito.when(template.execute(Mockito.any())).thenAnswer(
+                invocation -> ((ChannelCallback<?>) invocation.getArgument(0)).doInRabbit(channel));
+
+        Topology topology = Topology.parse("exchange builds topic\n" +
+                "\n" +
+                "queue build-events\n" +
+                "binding builds build-events build.#");
+        Set<String> declared = new HashSet<>();
+
+        // call
+        int first = topology.declareMissing(template, declared);
+        int second = topology.declareMissing(template, declared);
+
+        // assertions
+        Assertions.assertThat(first).isEqualTo(3);
+        Assertions.assertThat(second).isZero();
+        Mockito.verify(template, Mockito.times(1)).execute(Mockito.any(ChannelCallback.class));
+        Mockito.verify(channel).exchangeDeclare("builds", "topic", true);
+        Mockito.verify(channel).queueDeclare("build-events", true, false, false, null);
+        Mockito.verify(channel).queueBind("build-events", "builds", "build.#");
+
+        // call : connection recovered
+        declared.clear();
+        int afterRecovery = Topology.parse("exchange builds topic").declareMissing(template, declared);
+
+        // assertions
+        Assertions.assertThat(afterRecovery).isEqualTo(1);
+        Mockito.verify(channel, Mockito.times(2)).exchangeDeclare("builds", "topic", true);
+    }
+
+    @Test
+    public void test_parse_errors() {
+        Assertions.assertThat(Topology.parse(" ").isEmpty()).isTrue();
+
+        Assertions.assertThatThrownBy(() -> Topology.parse("vhost test"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Declarations start with exchange, queue or binding");
+
+        Assertions.assertThatThrownBy(() -> Topology.parse("exchange builds unknown"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Incorrect exchange type");
+
+        Assertions.assertThatThrownBy(() -> Topology.parse("binding builds"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Expected format is binding exchange queue [routing-key]");
+    }
+}
@@ -0,0 +1,59 @@
+package fr.frogdevelopment.jenkins.plugins.mq;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class TraceContextTest {
+
+    @Test
+    public void test_newTrace() {
+        // call
+        TraceContext trace = TraceContext.newTrace();
+        TraceContext other = TraceContext.newTrace();
+
+        // assertions
+        Assertions.assertThat(trace.toTraceparent()).matches("00-[0-9a-f]{32}-[0-9a-f]{16}-01");
+        Assertions.assertThat(other.getTraceId()).isNotEqualTo(trace.getTraceId());
+        Assertions.assertThat(other.getSpanId()).isNotEqualTo(trace.getSpanId());
+    }
+
+    @Test
+    public void test_parse() {
+        // data
+        String traceparent = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+        // call
+        TraceContext trace = TraceContext.parse(traceparent);
+
+        // assertions
+        Assertions.assertThat(trace).isNotNull();
+        Assertions.assertThat(trace.getTraceId()).isEqualTo("4bf92f3577b34da6a3ce929d0e0e4736");
+        Assertions.assertThat(trace.getSpanId()).isEqualTo("00f067aa0ba902b7");
+        Assertions.assertThat(trace.toTraceparent()).isEqualTo(traceparent);
+    }
+
+    @Test
+    public void test_newChild() {
+        // data
+        TraceContext parent = TraceContext.parse("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+
+        // call
+        TraceContext child = parent.newChild();
+
+        // assertions
+        Assertions.assertThat(child.getTraceId()).isEqualTo(parent.getTraceId());
+        Assertions.assertThat(child.getSpanId()).isNotEqualTo(parent.getSpanId());
+        Assertions.assertThat(child.getParentSpanId()).isEqualTo("00f067aa0ba902b7");
+        Assertions.assertThat(parent.getParentSpanId()).isNull();
+    }
+
+    @Test
+    public void test_parse_invalid() {
+        Assertions.assertThat(TraceContext.parse(null)).isNull();
+        Assertions.assertThat(TraceContext.parse("")).isNull();
+        Assertions.assertThat(TraceContext.parse("00-4bf92f3577b34da6a3ce929d0e0e4736-01")).isNull();
+        Assertions.assertThat(TraceContext.parse("00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01")).isNull();
+        Assertions.assertThat(TraceContext.parse("00-00000000000000000000000000000000-00f067aa0ba902b7-01")).isNull();
+        Assertions.assertThat(TraceContext.parse("00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01")).isNull();
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class UtilsTest {
 
@@ -90,4 +91,16 @@ public class UtilsTest {
         Assertions.assertThat(jsonMessage).isEqualTo("{\"field1\":\"test\",\"field2\":\"VALUE_1\",\"field3\":\"value_2\",\"fieldEmpty\":\"\",\"fieldNull\":null}");
     }
 
+    @Test
+    public void test_getReferencedVariables() {
+        // call
+        Set<String> variables = Utils.getReferencedVariables(
+                "field_1=${PARAM_1}\nfield_2=$param_2-${PARAM_1}",
+                null,
+                "${JOB_NAME}-$BUILD_NUMBER-${dotted.name}-no_variable");
+
+        // assertions
+        Assertions.assertThat(variables).containsExactly("PARAM_1", "param_2", "JOB_NAME", "BUILD_NUMBER", "dotted.name");
+    }
+
 }
\ No newline at end of file